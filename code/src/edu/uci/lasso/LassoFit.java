@@ -8,6 +8,8 @@
 
 package edu.uci.lasso;
 
+import java.util.Arrays;
+
 /**
  *
  * @author Yasser Ganjisaffar
@@ -59,6 +61,19 @@ public class LassoFit {
      */
     public int numberOfPasses;
 
+    /**
+     * Pointers to the active lambdas of each compressed weight: the lambdas at
+     * which the feature indices[i] has a non-zero weight are stored in
+     * activeLambdas[activeLambdaOffsets[i]] ... activeLambdas[activeLambdaOffsets[i+1]-1]
+     */
+    public int[] activeLambdaOffsets;
+
+    /**
+     * Indices of the lambdas at which each compressed weight is non-zero,
+     * in increasing order
+     */
+    public int[] activeLambdas;
+
     private int numFeatures;
 
     /**
@@ -91,4 +106,59 @@ public class LassoFit {
         return weights;
     }
 
+    /**
+     * Build the sparse activity index of the path (activeLambdaOffsets and
+     * activeLambdas) from the compressed weights of the fitted solutions
+     */
+    public void computeActivityIndex() {
+        int numberOfInputs = getNumberOfInputs();
+        activeLambdaOffsets = new int[numberOfInputs + 1];
+        for (int k = 0; k < numberOfLambdas; k++) {
+            for (int i = 0; i < numberOfWeights[k]; i++) {
+                if (compressedWeights[k][i] != 0) {
+                    activeLambdaOffsets[i + 1]++;
+                }
+            }
+        }
+        for (int i = 0; i < numberOfInputs; i++) {
+            activeLambdaOffsets[i + 1] += activeLambdaOffsets[i];
+        }
+        activeLambdas = new int[activeLambdaOffsets[numberOfInputs]];
+        int[] next = new int[numberOfInputs];
+        System.arraycopy(activeLambdaOffsets, 0, next, 0, numberOfInputs);
+        for (int k = 0; k < numberOfLambdas; k++) {
+            for (int i = 0; i < numberOfWeights[k]; i++) {
+                if (compressedWeights[k][i] != 0) {
+                    activeLambdas[next[i]++] = k;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of features that entered the path, i.e. the largest
+     * number of compressed weights over all the solutions of the path
+     */
+    public int getNumberOfInputs() {
+        int numberOfInputs = 0;
+        for (int k = 0; k < numberOfLambdas; k++) {
+            numberOfInputs = Math.max(numberOfInputs, numberOfWeights[k]);
+        }
+        return numberOfInputs;
+    }
+
+    /**
+     * Decompress the weights of a solution into a caller-provided buffer
+     * @param lambdaIdx
+     * @param weights buffer of at least numFeatures entries, overwritten
+     * @return the buffer
+     */
+    public double[] getWeights(int lambdaIdx, double[] weights) {
+        Arrays.fill(weights, 0, numFeatures, 0);
+        for (int i = 0; i < numberOfWeights[lambdaIdx]; i++) {
+            weights[indices[i]] = compressedWeights[lambdaIdx][i];
+        }
+        return weights;
+    }
+
 }
@@ -95,6 +95,18 @@ public class LassoFitGenerator {
         System.arraycopy(values, 0, observations[idx], 0, values.length);
     }
 
+    /**
+     *
+     * @param idx
+     * @param values
+     */
+    public void setFeatureValues(int idx, double[] values) {
+        float[] featureValues = observations[idx];
+        for (int i = 0; i < numObservations; i++) {
+            featureValues[i] = (float) values[i];
+        }
+    }
+
     /**
      *
      * @param idx
@@ -335,6 +347,8 @@ public class LassoFitGenerator {
             // First lambda was infinity; fixing it
             fit.lambdas[0] = Math.exp(2 * Math.log(fit.lambdas[1]) - Math.log(fit.lambdas[2]));
 
+            fit.computeActivityIndex();
+
             //long duration = System.currentTimeMillis() - startTime;
             //System.out.println("Elapsed time for compression: " + duration);
             return fit;
@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.algorithm;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes the files produced during a run (models and feature sets) on a
+ * background thread. The content of a file is built in memory by the caller
+ * and handed over with write, which returns without writing it. Files are
+ * written in the order they are submitted; a file submitted again before it
+ * was written is only written once, with its latest content. Each file is
+ * written to a temporary file in the same directory which is then renamed,
+ * so that a file is never read half written. At most MAX_PENDING files wait
+ * to be written: submitting another file waits until one is written, which
+ * bounds the memory held by the contents.
+ *
+ * Errors of the background thread, unchecked exceptions included, are
+ * reported by the next call to write, flush or close.
+ *
+ * @author Ignacio Arnaldo
+ */
+public final class ArtifactWriter implements Closeable {
+
+    // largest number of files waiting to be written, write blocks beyond it
+    private static final int MAX_PENDING = 8;
+
+    // content of the files to write, by path, in submission order
+    private final Map<String, String> pending = new LinkedHashMap<String, String>();
+
+    // whether the background thread is writing a file
+    private boolean writing;
+
+    private boolean closed;
+
+    // first error of the background thread
+    private IOException failure;
+
+    private Thread thread;
+
+    /**
+     * Submit the content of a file, which replaces the file once written;
+     * waits while MAX_PENDING other files are waiting to be written
+     * @param path
+     * @param content
+     * @throws IOException if a previous file could not be written, or the
+     *         writer is closed
+     */
+    public synchronized void write(String path, String content) throws IOException {
+        checkFailure();
+        if (closed) {
+            throw new IOException("Error writing " + path + ": artifact writer closed");
+        }
+        try {
+            while (pending.size() >= MAX_PENDING && !pending.containsKey(path) && failure == null) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing the run files");
+        }
+        checkFailure();
+        pending.remove(path);
+        pending.put(path, content);
+        if (thread == null) {
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            }, "artifact writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Wait until all the submitted files are written
+     * @throws IOException if a file could not be written
+     */
+    public synchronized void flush() throws IOException {
+        try {
+            while ((writing || !pending.isEmpty()) && failure == null) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing the run files");
+        }
+        checkFailure();
+    }
+
+    /**
+     * Write the submitted files and stop the background thread
+     * @throws IOException if a file could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /*
+    * body of the background thread: write the pending files until closed
+    */
+    private void writeLoop() {
+        while (true) {
+            String path;
+            String content;
+            synchronized (this) {
+                while (pending.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        fail("Error writing the run files: artifact writer interrupted", e);
+                        return;
+                    }
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                Iterator<Map.Entry<String, String>> first = pending.entrySet().iterator();
+                Map.Entry<String, String> entry = first.next();
+                first.remove();
+                path = entry.getKey();
+                content = entry.getValue();
+                writing = true;
+            }
+            try {
+                replace(path, content);
+            } catch (Throwable e) {
+                fail("Error writing " + path + ": " + (e instanceof IOException ? e.getMessage() : e.toString()), e);
+            } finally {
+                synchronized (this) {
+                    writing = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /*
+    * record the first error of the background thread and wake up the callers
+    */
+    private synchronized void fail(String message, Throwable cause) {
+        if (failure == null) {
+            failure = new IOException(message, cause);
+        }
+        notifyAll();
+    }
+
+    /*
+    * write a file to a temporary file of the same directory and rename it
+    */
+    private static void replace(String path, String content) throws IOException {
+        File target = new File(path).getAbsoluteFile();
+        File temp = File.createTempFile("." + target.getName() + ".", ".tmp", target.getParentFile());
+        boolean written = false;
+        try {
+            BufferedWriter out = new BufferedWriter(new FileWriter(temp));
+            try {
+                out.write(content);
+            } finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            written = true;
+        } finally {
+            if (!written) {
+                temp.delete();
+            }
+        }
+    }
+}
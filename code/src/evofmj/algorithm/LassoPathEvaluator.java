@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+
+package evofmj.algorithm;
+
+import edu.uci.lasso.LassoFit;
+import java.util.Arrays;
+
+/**
+ * Computes the mean squared error of every model of a Lasso path.
+ * Consecutive models of the path only differ in a few weights, so the
+ * prediction vector is updated incrementally with the weight deltas between
+ * adjacent lambdas instead of being rebuilt from scratch for each lambda.
+ * The buffers are reused across calls.
+ * @author Ignacio Arnaldo
+ */
+class LassoPathEvaluator {
+
+    // predictions of the current model of the path, without intercept
+    private double[] predictions;
+
+    // compressed weights of the previous model of the path
+    private double[] previousWeights;
+
+    /**
+     * compute the mean squared error of the fitted models of the path
+     * @param fit Lasso path
+     * @param columns data stored by columns
+     * @param columnIndices column of the data holding each feature of the fit
+     * @param targets target values
+     * @param numberOfFitnessCases number of exemplars
+     * @param mse output, mse[l] is the error of the model fitted for lambda l
+     */
+    void computeMSE(LassoFit fit, double[][] columns, int[] columnIndices, double[] targets, int numberOfFitnessCases, double[] mse){
+        if(predictions==null || predictions.length<numberOfFitnessCases){
+            predictions = new double[numberOfFitnessCases];
+        }
+        int numberOfInputs = fit.getNumberOfInputs();
+        if(previousWeights==null || previousWeights.length<numberOfInputs){
+            previousWeights = new double[numberOfInputs];
+        }
+        Arrays.fill(predictions, 0, numberOfFitnessCases, 0);
+        Arrays.fill(previousWeights, 0, numberOfInputs, 0);
+        for(int l=0;l<fit.numberOfLambdas;l++){
+            double[] weights = fit.compressedWeights[l];
+            for(int k=0;k<fit.numberOfWeights[l];k++){
+                double delta = weights[k] - previousWeights[k];
+                if(delta!=0){
+                    addScaledColumn(columns[columnIndices[fit.indices[k]]], delta, numberOfFitnessCases);
+                    previousWeights[k] = weights[k];
+                }
+            }
+            mse[l] = meanSquaredError(targets, fit.intercepts[l], numberOfFitnessCases);
+        }
+    }
+
+    /*
+    * predictions += delta * column
+    */
+    private void addScaledColumn(double[] column, double delta, int numberOfFitnessCases){
+        for(int i=0;i<numberOfFitnessCases;i++){
+            predictions[i] += delta * column[i];
+        }
+    }
+
+    private double meanSquaredError(double[] targets, double intercept, int numberOfFitnessCases){
+        double sqError = 0;
+        for(int i=0;i<numberOfFitnessCases;i++){
+            double diff = targets[i] - (intercept + predictions[i]);
+            sqError += diff * diff;
+        }
+        return sqError / numberOfFitnessCases;
+    }
+}
@@ -22,13 +22,15 @@ package evofmj.algorithm;
 
 import edu.uci.lasso.LassoFit;
 import edu.uci.lasso.LassoFitGenerator;
+import evofmj.efm.GPException;
+import evofmj.evaluation.Dataset;
 import evofmj.evaluation.java.EFMScaledData;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import evofmj.genotype.Tree;
+import evofmj.genotype.TreeGenerator;
+import evofmj.math.Operator;
+import evofmj.model.EFMModel;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Random;
 
 /**
@@ -46,21 +48,33 @@ public class RegressionEFM {
     double binary_recomb_rate;
     double[] featureScores;
     int[] indicesArchive;
-    ArrayList<String> alWeights;
+    int[] archiveHeap;
+    double[] modelWeights;
+    int[] fitColumns;
+    int numberOfFitColumns;
+    int[] modelColumns;
+    int numberOfModelColumns;
+    LassoPathEvaluator pathEvaluator;
+    double[] mseLambdas;
+    double[] modelPredictions;
     Random r;
     double lassoIntercept;
     int maxFeatureSize;
-    String[] unaryOps = {"mylog","exp","mysqrt","square","cube","cos","sin"};
-    String[] binaryOps = {"*","mydiv","+","-"};
-    double BEST_MSE, CURRENT_MSE;
-    ArrayList<String> bestFeatures;
-    ArrayList<Double> bestWeights;
+    Operator[] unaryOps = {Operator.LOG,Operator.EXP,Operator.SQRT,Operator.SQUARE,Operator.CUBE,Operator.COS,Operator.SIN};
+    Operator[] binaryOps = {Operator.MULTIPLY,Operator.DIVIDE,Operator.PLUS,Operator.MINUS};
+    double BEST_MSE, CURRENT_MSE, CURRENT_MAE;
+    int[] bestFeatureNodes;
+    int numberOfBestFeatures;
+    double[] bestWeights;
     double bestIntercerpt;
     int MAX_STALL_ITERATIONS = 200;
     int STALL_ITERATIONS;
     int indexIteration;
     int FITNESS_BIAS = 1; // 0:vc --- 1:r2 --- 2:mse
     int MODEL_SELECTION_BIAS = 1;
+    ArtifactWriter artifactWriter;
+    String metricsPath;
+    RunMetrics metrics;
     
     /**
      * constructor
@@ -72,15 +86,34 @@ public class RegressionEFM {
      * @throws IOException
      */
     public RegressionEFM(String csvPath, int aNumberOfArchiveFeatures, int aNumberOfNewFeatures, int aMaxFeatureSize, int aMaxFinalFeatures) throws IOException{
+        this(Dataset.load(csvPath), aNumberOfArchiveFeatures, aNumberOfNewFeatures, aMaxFeatureSize, aMaxFinalFeatures);
+    }
+
+    /**
+     * constructor over a loaded data set, which is not modified
+     * @param data
+     * @param aNumberOfArchiveFeatures
+     * @param aNumberOfNewFeatures
+     * @param aMaxFeatureSize
+     * @param aMaxFinalFeatures
+     */
+    public RegressionEFM(Dataset data, int aNumberOfArchiveFeatures, int aNumberOfNewFeatures, int aMaxFeatureSize, int aMaxFinalFeatures) {
         numberOfArchiveFeatures = aNumberOfArchiveFeatures;
         numberOfNewFeatures = aNumberOfNewFeatures;
         maxFinalFeatures = aMaxFinalFeatures;
         maxFeatureSize = aMaxFeatureSize;
-        dataMatrix = new EFMScaledData(numberOfArchiveFeatures, numberOfNewFeatures, csvPath);
+        dataMatrix = new EFMScaledData(numberOfArchiveFeatures, numberOfNewFeatures, data);
         numberOfOriginalFeatures = dataMatrix.getNumberOfOriginalFeatures();
         featureScores = new double[numberOfOriginalFeatures + numberOfArchiveFeatures + numberOfNewFeatures];
         indicesArchive = new int[numberOfArchiveFeatures];
         for(int i=0;i<numberOfArchiveFeatures;i++) indicesArchive[i] = numberOfOriginalFeatures + i;
+        archiveHeap = new int[numberOfArchiveFeatures];
+        modelWeights = new double[numberOfOriginalFeatures + numberOfArchiveFeatures];
+        bestWeights = new double[numberOfOriginalFeatures + numberOfArchiveFeatures];
+        bestFeatureNodes = new int[numberOfOriginalFeatures + numberOfArchiveFeatures];
+        fitColumns = new int[numberOfOriginalFeatures + numberOfArchiveFeatures + numberOfNewFeatures];
+        modelColumns = new int[numberOfOriginalFeatures + numberOfArchiveFeatures];
+        pathEvaluator = new LassoPathEvaluator();
         lassoIntercept = 0;
         tournamentSize = 2;
         binary_recomb_rate = 0.5;
@@ -88,11 +121,20 @@ public class RegressionEFM {
         System.out.println(seed);
         r = new Random(seed);
         BEST_MSE = Double.MAX_VALUE;
-        bestFeatures = new ArrayList<String>();
+        numberOfBestFeatures = 0;
         STALL_ITERATIONS = 0;
         startTime = System.currentTimeMillis();
     }
     
+    /**
+     * write the metrics of each generation to a JSONL file
+     * @param path of the metrics file, null to disable the metrics
+     * @see RunMetrics
+     */
+    public void setMetricsPath(String path){
+        metricsPath = path;
+    }
+    
     /**
      * main loop of the EFM method
      * @param timeout
@@ -104,20 +146,39 @@ public class RegressionEFM {
         boolean finished = false;
         indexIteration = 0;
         evalAllFeatures();
-        while (!finished) {
-            generateNewFeatures();
-            evalAllFeatures();
-            // FOR LOGGING PURPOSES
-            getCurrentModelWeights();
-            if(VERBOSE){
-                saveCurrentFeatureSet();
-                saveCurrentModel();
+        artifactWriter = new ArtifactWriter();
+        metrics = (metricsPath != null) ? new RunMetrics(metricsPath) : null;
+        try {
+            while (!finished) {
+                if(metrics!=null) metrics.startGeneration();
+                long phaseStart = System.nanoTime();
+                generateNewFeatures();
+                long featuresEnd = System.nanoTime();
+                evalAllFeatures();
+                long scoringEnd = System.nanoTime();
+                // FOR LOGGING PURPOSES
+                getCurrentModelWeights();
+                if(metrics!=null){
+                    metrics.featureGenerationNanos = featuresEnd - phaseStart;
+                    metrics.scoringFitNanos = scoringEnd - featuresEnd;
+                    metrics.modelFitNanos = System.nanoTime() - scoringEnd;
+                    metrics.archiveTurnover = countArchiveTurnover();
+                    double currentTime = (System.currentTimeMillis() - startTime) / 1000.0;
+                    metrics.writeGeneration(indexIteration, currentTime, CURRENT_MSE, CURRENT_MAE, BEST_MSE);
+                }
+                if(VERBOSE){
+                    saveCurrentFeatureSet();
+                    saveCurrentModel();
+                }
+                finished = stopCriteria();
+                indexIteration++;
             }
-            finished = stopCriteria();
-            indexIteration++;
+            saveBestFeatureSet(true);
+            saveBestModel(true);
+        } finally {
+            artifactWriter.close();
+            if(metrics!=null) metrics.close();
         }
-        saveBestFeatureSet(true);
-        saveBestModel(true);
     }
     
     /**
@@ -137,11 +198,10 @@ public class RegressionEFM {
     }
     
     /*
-    * Estimate feature importance according to
-    * the number of appearances of a feature in the regularized models obtained
-    * via pathwise coordinate descent
+    * Index of the model of the path with the highest coefficient of multiple
+    * correlation
     */
-    private void computeFeatureImportanceVariableCount(LassoFit fit,ArrayList<FeatureScore> alFS){
+    private int getIndexLambdaMaxR2(LassoFit fit){
         int indexWeights = 0;
         double rcoeff = 0;
         for(int i=0;i<fit.lambdas.length;i++){
@@ -150,106 +210,58 @@ public class RegressionEFM {
                 rcoeff = fit.rsquared[i];
             }
         }
-        double[] lassoWeights = fit.getWeights(indexWeights);
-        for(int j=0;j<lassoWeights.length;j++){
-            if(lassoWeights[j]!=0){
-                featureScores[j] = 0;
-                for(int z=0;z<fit.nonZeroWeights.length;z++){
-                    double[] lassoWeightsAux = fit.getWeights(z);
-                    if(lassoWeightsAux[j]!=0) featureScores[j]++;
+        return indexWeights;
+    }
+    
+    /*
+    * Score the features that have a non-zero weight in the selected model by
+    * accumulating lambdaScores over the models of the path in which they
+    * appear (each appearance counts 1 when lambdaScores is null). The sparse
+    * activity index of the fit is traversed, so the cost is proportional to
+    * the number of non-zero weights along the path. The features left out of
+    * the fit (dead slots) get a score of 0.
+    */
+    private void scoreActiveFeatures(LassoFit fit, int indexLambda, double[] lambdaScores){
+        Arrays.fill(featureScores, 0);
+        for(int i=0;i<fit.numberOfWeights[indexLambda];i++){
+            if(fit.compressedWeights[indexLambda][i]!=0){
+                double score = 0;
+                for(int p=fit.activeLambdaOffsets[i];p<fit.activeLambdaOffsets[i+1];p++){
+                    score += (lambdaScores==null) ? 1 : lambdaScores[fit.activeLambdas[p]];
                 }
-            }else{
-                featureScores[j] = 0;
-            }
-            if(j>=numberOfOriginalFeatures){
-                FeatureScore fsAux = new FeatureScore(j,featureScores[j]);
-                alFS.add(fsAux);    
+                featureScores[fitColumns[fit.indices[i]]] = score;
             }
         }
     }
+    
+    /*
+    * Estimate feature importance according to
+    * the number of appearances of a feature in the regularized models obtained
+    * via pathwise coordinate descent
+    */
+    private void computeFeatureImportanceVariableCount(LassoFit fit){
+        scoreActiveFeatures(fit, getIndexLambdaMaxR2(fit), null);
+    }
 
     /*
     * Estimate feature importance according to the coefficient of multiple 
     * correlation of the models in which the feature appears
     */
-    private void computeFeatureImportanceBiasR2(LassoFit fit,ArrayList<FeatureScore> alFS){
-        int indexWeights = 0;
-        double rcoeff = 0;
-        for(int i=0;i<fit.lambdas.length;i++){
-            if(fit.rsquared[i]> rcoeff){
-                indexWeights = i;
-                rcoeff = fit.rsquared[i];
-            }
-        }
-        
-        double[] lassoWeights = fit.getWeights(indexWeights);
-               
-        for(int j=0;j<lassoWeights.length;j++){
-            featureScores[j] = 0;
-            if(lassoWeights[j]!=0){
-                for(int z=0;z<fit.nonZeroWeights.length;z++){
-                    double[] lassoWeightsAux = fit.getWeights(z);
-                    if(lassoWeightsAux[j]!=0) {
-                        //featureScores[j] += fit.rsquared[z]/(dataMatrix.getFeatureSize(j)*0.5);
-                        featureScores[j] += fit.rsquared[z];
-                    }
-                }
-            }
-            if(j>=numberOfOriginalFeatures){
-                FeatureScore fsAux = new FeatureScore(j,featureScores[j]);
-                alFS.add(fsAux);    
-            }
-        }
+    private void computeFeatureImportanceBiasR2(LassoFit fit){
+        scoreActiveFeatures(fit, getIndexLambdaMaxR2(fit), fit.rsquared);
     }    
     
     /*
     * Estimate feature importance according to the mean squared error of the
     * models in which the feature appears
     */
-    private void computeFeatureImportanceBiasMSE(LassoFit fit,ArrayList<FeatureScore> alFS){
-        double[][] dataMatrixAux = dataMatrix.getInputValues();
-        double[] targetsAux = dataMatrix.getTargetValues();
-        double minSqError = Double.MAX_VALUE;
-        int indexLambdaMinError = 0;
-        double[] mseLambdas = new double[fit.lambdas.length];
-        for(int l=0;l<fit.lambdas.length;l++){    
-            double interceptAux = fit.intercepts[l];
-            double[] lassoWeightsAux = fit.getWeights(l);
-            double sqError = 0;
-            for (int i = 0; i < dataMatrix.getNumberOfFitnessCases(); i++) {
-                double prediction = interceptAux;
-                int indexFeature=0;
-                for(int j=0;j<numberOfOriginalFeatures+numberOfArchiveFeatures+numberOfNewFeatures;j++){
-                    prediction += dataMatrixAux[i][j]*lassoWeightsAux[indexFeature];
-                    indexFeature++;
-                }
-                sqError += Math.pow(targetsAux[i] - prediction,2);
-            }
-            sqError = sqError / dataMatrix.getNumberOfFitnessCases();
-            mseLambdas[l] = sqError;
-            if((sqError<minSqError)){
-                minSqError = sqError;
-                indexLambdaMinError = l;
-            }
-        }
-        
-        double[] lassoWeights = fit.getWeights(indexLambdaMinError);
-
-        for(int j=0;j<lassoWeights.length;j++){
-            featureScores[j] = 0;
-            if(lassoWeights[j]!=0){
-                for(int l=0;l<fit.numberOfLambdas;l++){
-                    double[] lassoWeightsAux = fit.getWeights(l);
-                    if(lassoWeightsAux[j]!=0) {
-                        featureScores[j] += 1/mseLambdas[l]; //check the bias, not sure it makes sense to add 1/mse;;;;;;
-                    }
-                }
-            }
-            if(j>=numberOfOriginalFeatures){
-                FeatureScore fsAux = new FeatureScore(j,featureScores[j]);
-                alFS.add(fsAux);    
-            }
+    private void computeFeatureImportanceBiasMSE(LassoFit fit){
+        computePathMSE(fit, fitColumns);
+        int indexLambdaMinError = getIndexLambdaMinMSE(fit);
+        for(int l=0;l<fit.numberOfLambdas;l++){
+            mseLambdas[l] = 1/mseLambdas[l]; //check the bias, not sure it makes sense to add 1/mse;;;;;;
         }
+        scoreActiveFeatures(fit, indexLambdaMinError, mseLambdas);
     }
 
     /*
@@ -259,45 +271,106 @@ public class RegressionEFM {
     private void evalAllFeatures() throws Exception{
         LassoFitGenerator fitGenerator = new LassoFitGenerator();
         int numObservations = dataMatrix.getNumberOfFitnessCases();
-        fitGenerator.init((numberOfOriginalFeatures + numberOfArchiveFeatures + numberOfNewFeatures), numObservations);
-        for (int i = 0; i < numObservations; i++) {
-            double[] row = dataMatrix.getRow(i);
-            float[] rowFloats = new float[numberOfOriginalFeatures + numberOfArchiveFeatures + numberOfNewFeatures];
-            for(int j=0;j<numberOfOriginalFeatures+numberOfArchiveFeatures+numberOfNewFeatures;j++){
-                rowFloats[j]=(float)row[j];
+        // rejected candidates (dead slots) are left out of the fit
+        numberOfFitColumns = 0;
+        for(int j=0;j<numberOfOriginalFeatures+numberOfArchiveFeatures+numberOfNewFeatures;j++){
+            if(!dataMatrix.isDeadFeature(j)){
+                fitColumns[numberOfFitColumns] = j;
+                numberOfFitColumns++;
             }
-            fitGenerator.setObservationValues(i,rowFloats);
-            fitGenerator.setTarget(i, dataMatrix.getTargetValues()[i]);
         }
+        fitGenerator.init(numberOfFitColumns, numObservations);
+        for(int k=0;k<numberOfFitColumns;k++){
+            fitGenerator.setFeatureValues(k, dataMatrix.getColumn(fitColumns[k]));
+        }
+        fitGenerator.setTargets(dataMatrix.getTargetValues());
 
         /*
          * Generate the Lasso fit. The -1 arguments means that there would be 
          * no limit on the maximum number of features per model.
          * We set the value to numberOfOriginalFeatures+numberOfArchiveFeatures to force selective pressure
          */
-        LassoFit fit = fitGenerator.fit(numberOfOriginalFeatures+numberOfArchiveFeatures + numberOfNewFeatures,100);
-        
-        alWeights = null;
-        alWeights = new ArrayList<String>();
-        
-        ArrayList<FeatureScore> alFS = new ArrayList<FeatureScore>();
+        LassoFit fit = fitGenerator.fit(numberOfFitColumns,100);
+        if(metrics!=null) metrics.scoringFitPasses = fit.numberOfPasses;
         
         /*
         * These are variant to estimate feature importance
         */
         if(FITNESS_BIAS==0){//bias feature importance of feature with # of different Lambdas
-            computeFeatureImportanceVariableCount(fit,alFS);
+            computeFeatureImportanceVariableCount(fit);
         }else if(FITNESS_BIAS==1){// bias feature importance of feature with r2 of different Lambdas
-            computeFeatureImportanceBiasR2(fit,alFS);
+            computeFeatureImportanceBiasR2(fit);
         }else if(FITNESS_BIAS==2){// bias feature importance with MSE of different Lambdas
-            computeFeatureImportanceBiasMSE(fit, alFS);
+            computeFeatureImportanceBiasMSE(fit);
         }
 
-        Collections.sort(alFS);
-        for(int i=0;i<numberOfArchiveFeatures;i++){
-            indicesArchive[i] = alFS.get(i).getIndex();
+        selectArchiveFeatures();
+    }
+    
+    /*
+    * keep the numberOfArchiveFeatures best scored composed features.
+    * A bounded min-heap holds the best candidates seen so far (its root is the
+    * weakest one), so the selection costs O(m log k) instead of a full sort.
+    * Ties are broken in favor of the lowest index, as a stable sort would do.
+    */
+    private void selectArchiveFeatures(){
+        int k = numberOfArchiveFeatures;
+        if(k==0) return;
+        int indexEnd = numberOfOriginalFeatures + numberOfArchiveFeatures + numberOfNewFeatures;
+        int heapSize = 0;
+        for(int j=numberOfOriginalFeatures;j<indexEnd;j++){
+            if(heapSize<k){
+                archiveHeap[heapSize] = j;
+                siftUp(heapSize);
+                heapSize++;
+            }else if(isBetterScore(j,archiveHeap[0])){
+                archiveHeap[0] = j;
+                siftDown(0,heapSize);
+            }
+        }
+        // pop the weakest candidate repeatedly to rank the archive from best to worst
+        for(int i=k-1;i>=0;i--){
+            indicesArchive[i] = archiveHeap[0];
+            heapSize--;
+            archiveHeap[0] = archiveHeap[heapSize];
+            siftDown(0,heapSize);
         }
-        alFS.clear();
+    }
+    
+    /*
+    * ranking order of the archive: higher score first, then lower index
+    */
+    private boolean isBetterScore(int index1, int index2){
+        if(featureScores[index1]!=featureScores[index2]){
+            return featureScores[index1]>featureScores[index2];
+        }
+        return index1<index2;
+    }
+    
+    private void siftUp(int pos){
+        int item = archiveHeap[pos];
+        while(pos>0){
+            int parent = (pos-1) >>> 1;
+            if(!isBetterScore(archiveHeap[parent],item)) break;
+            archiveHeap[pos] = archiveHeap[parent];
+            pos = parent;
+        }
+        archiveHeap[pos] = item;
+    }
+    
+    private void siftDown(int pos, int heapSize){
+        int item = archiveHeap[pos];
+        int half = heapSize >>> 1;
+        while(pos<half){
+            int child = 2*pos + 1;
+            if(child+1<heapSize && isBetterScore(archiveHeap[child],archiveHeap[child+1])){
+                child++;
+            }
+            if(!isBetterScore(item,archiveHeap[child])) break;
+            archiveHeap[pos] = archiveHeap[child];
+            pos = child;
+        }
+        archiveHeap[pos] = item;
     }
     
     /*
@@ -315,35 +388,40 @@ public class RegressionEFM {
     }
         
     /*
-    * Select the model that maximizes the mean squared error
-    */    
-    private int getIndexLambdaModelSelectionMSE(LassoFit fit){
-        double[][] dataMatrixAux = dataMatrix.getInputValues();
-        double[] targetsAux = dataMatrix.getTargetValues();
+    * Compute the mean squared error of the models of the path on the training
+    * data; columnIndices maps the features of the fit to the data columns
+    */
+    private void computePathMSE(LassoFit fit, int[] columnIndices){
+        if(mseLambdas==null || mseLambdas.length<fit.lambdas.length){
+            mseLambdas = new double[fit.lambdas.length];
+        }
+        pathEvaluator.computeMSE(fit, dataMatrix.getColumns(), columnIndices, dataMatrix.getTargetValues(), dataMatrix.getNumberOfFitnessCases(), mseLambdas);
+    }
+    
+    /*
+    * Index of the model of the path with the lowest mean squared error
+    * (computePathMSE must be called first)
+    */
+    private int getIndexLambdaMinMSE(LassoFit fit){
         double minSqError = Double.MAX_VALUE;
         int indexLambdaMinError = 0;
-        for(int l=0;l<fit.lambdas.length;l++){
-            double interceptAux = fit.intercepts[l];
-            double[] lassoWeightsAux = fit.getWeights(l);
-            double sqError = 0;
-            for (int i = 0; i < dataMatrix.getNumberOfFitnessCases(); i++) {
-                double prediction = interceptAux;
-                int indexFeature =0;
-                for(int j=0;j<numberOfOriginalFeatures+numberOfArchiveFeatures;j++){
-                    prediction += dataMatrixAux[i][j]*lassoWeightsAux[indexFeature];
-                    indexFeature++;
-                }
-                sqError += Math.pow(targetsAux[i] - prediction,2);
-            }
-            sqError = sqError / dataMatrix.getNumberOfFitnessCases();
-            if(sqError<minSqError){
-                minSqError = sqError;
+        for(int l=0;l<fit.numberOfLambdas;l++){
+            if(mseLambdas[l]<minSqError){
+                minSqError = mseLambdas[l];
                 indexLambdaMinError = l;
             }
         }
         return indexLambdaMinError;
     }
     
+    /*
+    * Select the model that minimizes the mean squared error
+    */    
+    private int getIndexLambdaModelSelectionMSE(LassoFit fit){
+        computePathMSE(fit, modelColumns);
+        return getIndexLambdaMinMSE(fit);
+    }
+    
     /*
     * Obtain a linear model with the best/selected features
     */
@@ -353,22 +431,12 @@ public class RegressionEFM {
          */
         LassoFitGenerator fitGenerator = new LassoFitGenerator();
         int numObservations = dataMatrix.getNumberOfFitnessCases();
-        fitGenerator.init(numberOfOriginalFeatures+numberOfArchiveFeatures, numObservations);
-        for (int i = 0; i < numObservations; i++) {
-            double[] row = dataMatrix.getRow(i);
-            float[] reducedRow = new float[numberOfOriginalFeatures+numberOfArchiveFeatures];
-            int indexAddedFeature=0;
-            for(int j=0;j<numberOfOriginalFeatures+numberOfArchiveFeatures+numberOfNewFeatures;j++){
-                if(j<numberOfOriginalFeatures || archiveContains(j) ){
-                    reducedRow[indexAddedFeature]=(float)row[j];
-                    indexAddedFeature++;
-                }
-            }
-            //fitGenerator.setObservationValues(i,dataMatrix.getRow(i));
-            fitGenerator.setObservationValues(i,reducedRow);
-            fitGenerator.setTarget(i, dataMatrix.getTargetValues()[i]);
-            reducedRow = null;
+        updateModelColumns();
+        fitGenerator.init(numberOfModelColumns, numObservations);
+        for(int k=0;k<numberOfModelColumns;k++){
+            fitGenerator.setFeatureValues(k, dataMatrix.getColumn(modelColumns[k]));
         }
+        fitGenerator.setTargets(dataMatrix.getTargetValues());
 
         /*
          * Generate the Lasso fit. The -1 arguments means that there would be 
@@ -376,6 +444,7 @@ public class RegressionEFM {
          * We set the value to numberOfOriginalFeatures+numberOfArchiveFeatures to force selective pressure
          */
         LassoFit fit = fitGenerator.fit(maxFinalFeatures,100);
+        if(metrics!=null) metrics.modelFitPasses = fit.numberOfPasses;
         
         int indexLambda = 0;
         /*
@@ -389,29 +458,16 @@ public class RegressionEFM {
         }
        
 
-        alWeights = null;
-        alWeights = new ArrayList<String>();
-        double[] lassoWeights = fit.getWeights(indexLambda);
-        
-        for(int j=0;j<lassoWeights.length;j++){
-            alWeights.add(Double.toString(lassoWeights[j]));
-        }
+        double[] lassoWeights = fit.getWeights(indexLambda,modelWeights);
         lassoIntercept = fit.intercepts[indexLambda];
         
         // We compute the mean squared error of the selected model
-        double[][] dataMatrixAux = dataMatrix.getInputValues();
         double[] targetsAux = dataMatrix.getTargetValues();
+        double[] predictions = getModelPredictions(lassoWeights);
         double sqError = 0;
         double absError = 0;
         for (int i = 0; i < dataMatrix.getNumberOfFitnessCases(); i++) {
-            double prediction = lassoIntercept;
-            int indexFeature =0;
-            for(int j=0;j<numberOfOriginalFeatures+numberOfArchiveFeatures+numberOfNewFeatures;j++){
-                if(j<numberOfOriginalFeatures || archiveContains(j) ){
-                    prediction += dataMatrixAux[i][j]*lassoWeights[indexFeature];
-                    indexFeature++;
-                }
-            }
+            double prediction = predictions[i];
             sqError += Math.pow(targetsAux[i] - prediction,2);
             absError += Math.abs(targetsAux[i] - prediction);
         }
@@ -424,23 +480,15 @@ public class RegressionEFM {
         
         // check if it is the best model so far
         CURRENT_MSE = sqError;
+        CURRENT_MAE = absError;
         if(CURRENT_MSE < BEST_MSE){
             BEST_MSE = CURRENT_MSE;
             STALL_ITERATIONS = 0;
-            bestFeatures = null;
-            bestFeatures = new ArrayList<String>();
-            bestWeights = null;
-            bestWeights = new ArrayList<Double>();
+            System.arraycopy(lassoWeights, 0, bestWeights, 0, numberOfModelColumns);
             bestIntercerpt = lassoIntercept;
-            int indexFeature = 0;
-            for(int j=0;j<numberOfOriginalFeatures+numberOfArchiveFeatures+numberOfNewFeatures;j++){
-                if(j<numberOfOriginalFeatures || archiveContains(j) ){
-                    String featureAux = dataMatrix.getFeatureString(j);
-                    double weightAux = lassoWeights[indexFeature];
-                    bestFeatures.add(featureAux);
-                    bestWeights.add(weightAux);
-                    indexFeature++;
-                }
+            numberOfBestFeatures = numberOfModelColumns;
+            for(int k=0;k<numberOfModelColumns;k++){
+                bestFeatureNodes[k] = dataMatrix.getFeatureNode(modelColumns[k]);
             }
         }else{
             STALL_ITERATIONS++;
@@ -448,11 +496,47 @@ public class RegressionEFM {
     }
     
     
+    /*
+    * list the data columns of the current model: the original features followed
+    * by the archive features, in column order. Dead archive slots are skipped.
+    */
+    private void updateModelColumns(){
+        numberOfModelColumns = 0;
+        for(int j=0;j<numberOfOriginalFeatures+numberOfArchiveFeatures+numberOfNewFeatures;j++){
+            if((j<numberOfOriginalFeatures || archiveContains(j)) && !dataMatrix.isDeadFeature(j)){
+                modelColumns[numberOfModelColumns] = j;
+                numberOfModelColumns++;
+            }
+        }
+    }
+    
+    /*
+    * predictions of the current model on the training data, accumulated
+    * column by column in feature order
+    */
+    private double[] getModelPredictions(double[] lassoWeights){
+        if(modelPredictions==null){
+            modelPredictions = new double[dataMatrix.getNumberOfFitnessCases()];
+        }
+        Arrays.fill(modelPredictions, lassoIntercept);
+        for(int k=0;k<numberOfModelColumns;k++){
+            double weight = lassoWeights[k];
+            if(weight!=0){
+                double[] column = dataMatrix.getColumn(modelColumns[k]);
+                for (int i = 0; i < modelPredictions.length; i++) {
+                    modelPredictions[i] += column[i]*weight;
+                }
+            }
+        }
+        return modelPredictions;
+    }
+    
     /*
     * compose new features from the features of the population + the original 
     * variables of the problem
     */
     private void generateNewFeatures(){    
+        dataMatrix.markFeaturesUnchanged();
         int indexStart = numberOfOriginalFeatures ;
         int indexEnd = numberOfOriginalFeatures + numberOfArchiveFeatures + numberOfNewFeatures;
         for(int j=indexStart;j<indexEnd;j++){
@@ -463,19 +547,34 @@ public class RegressionEFM {
                     if((dataMatrix.getFeatureSize(indexParent1) + dataMatrix.getFeatureSize(indexParent2)) <maxFeatureSize){
                         binaryRecombination(j,indexParent1,indexParent2);
                     }else{
-                        dataMatrix.setFeatureToZero(j);
+                        dataMatrix.setFeatureToDead(j);
+                        if(metrics!=null) metrics.countTooLarge();
                     }
                 }else{
                     if(dataMatrix.getFeatureSize(indexParent1) < maxFeatureSize){
                         unaryRecombination(j,indexParent1);
                     }else{
-                        dataMatrix.setFeatureToZero(j);
+                        dataMatrix.setFeatureToDead(j);
+                        if(metrics!=null) metrics.countTooLarge();
                     }
                 }
             }
         }
     }
     
+    /*
+    * number of archive features composed in the current generation
+    */
+    private int countArchiveTurnover(){
+        int turnover = 0;
+        for(int i=0;i<numberOfArchiveFeatures;i++){
+            if(dataMatrix.getSlotState(indicesArchive[i])==EFMScaledData.SLOT_LIVE){
+                turnover++;
+            }
+        }
+        return turnover;
+    }
+    
     /*
     * auxiliar method to check a given feature is part of the population
     */
@@ -512,22 +611,8 @@ public class RegressionEFM {
     */
     private void binaryRecombination(int indexNewFeature,int indexParent1,int indexParent2){
         int indexOp  = r.nextInt(binaryOps.length);
-        switch (binaryOps[indexOp]) {
-            case "*":
-                dataMatrix.multiplication(indexNewFeature,indexParent1,indexParent2);
-                break;
-            case "mydiv":
-                dataMatrix.division(indexNewFeature,indexParent1,indexParent2);
-                break;
-            case "+":
-                dataMatrix.sum(indexNewFeature,indexParent1,indexParent2);
-                break;
-            case "-":
-                dataMatrix.minus(indexNewFeature,indexParent1,indexParent2);
-                break;
-            default:
-                break;
-        }
+        byte outcome = dataMatrix.compose(binaryOps[indexOp],indexNewFeature,indexParent1,indexParent2);
+        if(metrics!=null) metrics.countCandidate(binaryOps[indexOp], outcome);
     }
 
     /*
@@ -535,56 +620,23 @@ public class RegressionEFM {
     */
     private void unaryRecombination(int indexNewFeature,int indexParent1){
         int indexOp  = r.nextInt(unaryOps.length);
-        switch (unaryOps[indexOp]) {
-            case "mylog":
-                dataMatrix.log(indexNewFeature,indexParent1);
-                break;
-            case "exp":
-                dataMatrix.exp(indexNewFeature,indexParent1);
-                break;
-            case "mysqrt":
-                dataMatrix.sqrt(indexNewFeature,indexParent1);
-                break;
-            case "square":
-                dataMatrix.square(indexNewFeature,indexParent1);
-                break;
-            case "cube":
-                dataMatrix.cube(indexNewFeature,indexParent1);
-                break;
-            case "cos":
-                dataMatrix.cos(indexNewFeature,indexParent1);
-                break;
-            case "sin":
-                dataMatrix.sin(indexNewFeature,indexParent1);
-                break;
-            default:
-                break;
-        }
+        byte outcome = dataMatrix.compose(unaryOps[indexOp],indexNewFeature,indexParent1,-1);
+        if(metrics!=null) metrics.countCandidate(unaryOps[indexOp], outcome);
     }
     
-    /*
-    * auxiliar method to save a string in a file
-    */
-    private void saveText(String filepath, String text, Boolean append) throws IOException {
-        BufferedWriter bw = new BufferedWriter(new FileWriter(filepath,append));
-        PrintWriter printWriter = new PrintWriter(bw);
-        printWriter.write(text);
-        printWriter.flush();
-        printWriter.close();
-    }
-        
     /*
     * save the population of features during the run
     * Logging method for research purposes
     */
     private void saveCurrentFeatureSet() throws IOException{
         String featuresPath = "features_" + indexIteration + ".txt";
-        this.saveText(featuresPath,"", false);
+        StringBuilder text = new StringBuilder();
         for(int j=0;j<numberOfOriginalFeatures+numberOfArchiveFeatures+numberOfNewFeatures;j++){
             if(j<numberOfOriginalFeatures || archiveContains(j) ){
-                this.saveText(featuresPath, dataMatrix.getFeatureString(j) + ",", true);
+                text.append(dataMatrix.getFeatureString(j)).append(',');
             }
         }
+        artifactWriter.write(featuresPath, text.toString());
     }
     
     /*
@@ -594,14 +646,12 @@ public class RegressionEFM {
     private void saveCurrentModel() throws IOException{
         System.out.println(indexIteration);
         String modelPath = "model_" + indexIteration + ".txt";
-        this.saveText(modelPath, lassoIntercept + "\n", false);
-        int indexFeature = 0;
-        for(int j=0;j<numberOfOriginalFeatures+numberOfArchiveFeatures+numberOfNewFeatures;j++){
-            if(j<numberOfOriginalFeatures || archiveContains(j) ){
-                this.saveText(modelPath, " + " + alWeights.get(indexFeature) + " * " + dataMatrix.getFeatureString(j) + "\n", true);
-                indexFeature++;
-            }
+        StringBuilder text = new StringBuilder();
+        text.append(lassoIntercept).append('\n');
+        for(int k=0;k<numberOfModelColumns;k++){
+            text.append(" + ").append(modelWeights[k]).append(" * ").append(dataMatrix.getFeatureString(modelColumns[k])).append('\n');
         }
+        artifactWriter.write(modelPath, text.toString());
     }
     
     /*
@@ -610,10 +660,11 @@ public class RegressionEFM {
     private void saveBestFeatureSet(boolean finished) throws IOException{
         String featuresPath = "features_" + indexIteration + ".txt";
         if (finished) featuresPath = "features.txt";
-        this.saveText(featuresPath,"", false);
-        for(int j=0; j<bestFeatures.size();j++){
-            this.saveText(featuresPath, bestFeatures.get(j) + ",", true);
+        StringBuilder text = new StringBuilder();
+        for(int j=0; j<numberOfBestFeatures;j++){
+            text.append(dataMatrix.getExpressionPool().toPrefixString(bestFeatureNodes[j])).append(',');
         }
+        artifactWriter.write(featuresPath, text.toString());
     }
   
     /*
@@ -622,45 +673,16 @@ public class RegressionEFM {
     private void saveBestModel(boolean finished) throws IOException{
         String modelPath = "model_" + indexIteration + ".txt";
         if (finished) modelPath = "model.txt";
-        this.saveText(modelPath, dataMatrix.getTargetMin() + "," + dataMatrix.getTargetMax() + "\n", false);
-        this.saveText(modelPath, bestIntercerpt + "\n", true);
-        for(int j=0; j<bestFeatures.size();j++){
-            if(bestWeights.get(j) != 0){
-                this.saveText(modelPath, " + " + bestWeights.get(j) + " * " + bestFeatures.get(j) + "\n", true);
-            }
-        }
-    }
-    
-    /*
-    * auxiliary class to sort features according to their estimated score/importance
-    */
-    private class FeatureScore implements Comparable<FeatureScore>{
-        private int index;
-        private double score;
-        
-        public FeatureScore(int anIndex, double aScore){
-            index = anIndex;
-            score = aScore;
+        Tree[] features = new Tree[numberOfBestFeatures];
+        for(int j=0; j<numberOfBestFeatures;j++){
+            features[j] = TreeGenerator.generateTree(dataMatrix.getExpressionPool().toPrefixString(bestFeatureNodes[j]));
         }
-        
-        public int getIndex(){
-            return index;
-        }
-        
-        public double getScore(){
-            return score;
-        }
-        
-        @Override
-        public int compareTo(FeatureScore other){
-            int comp = 0;
-            if(this.score>other.getScore()){
-                comp=-1;
-            }else if (this.score<other.getScore()){
-                comp = 1;
-            }
-            return comp;
+        double[] weights = Arrays.copyOf(bestWeights, numberOfBestFeatures);
+        try {
+            EFMModel model = new EFMModel(dataMatrix.getTargetMin(), dataMatrix.getTargetMax(), bestIntercerpt, weights, features);
+            artifactWriter.write(modelPath, model.simplify().toText());
+        } catch (GPException e) {
+            throw new IOException("Error saving model " + modelPath + ": " + e.getMessage());
         }
     }
 }
-
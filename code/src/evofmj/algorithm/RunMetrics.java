@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.algorithm;
+
+import evofmj.math.Operator;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Metrics of the generations of a run of RegressionEFM, written as one JSON
+ * object per line (JSONL) so that long runs can be followed and analyzed
+ * with standard tools. Each line holds:
+ *
+ * generation, seconds: index of the generation and time since the start of the run;
+ * featureGenerationMs, scoringFitMs, modelFitMs: time spent composing the new
+ * features, fitting the Lasso path that scores the features and selects the
+ * archive, and fitting the current model;
+ * scoringFitPasses, modelFitPasses: coordinate descent passes of both fits;
+ * currentMse, currentMae, bestMse: errors of the current model and of the best one;
+ * candidates: number of candidate features generated, kept, and rejected
+ * because a parent was dead (deadParent), their expression already was in the
+ * population (duplicate), they had NaN or infinite values (invalid), they were
+ * too correlated with a parent (correlated), or their parents were too large
+ * to be composed (tooLarge);
+ * operators: the same counts by operator label, tooLarge excepted since no
+ * operator is drawn for those candidates; operators without candidates are omitted;
+ * archiveTurnover: number of archive features that were composed in the generation;
+ * heapUsedBytes, heapMaxBytes: heap in use at the end of the generation and
+ * maximum heap size.
+ *
+ * Values that are not finite are written as null.
+ *
+ * @author Ignacio Arnaldo
+ */
+public final class RunMetrics implements Closeable {
+
+    // labels of the outcomes of EFMScaledData.compose, indexed by outcome
+    private static final String[] OUTCOMES = {"composed", "deadParent", "duplicate", "invalid", "correlated"};
+
+    private final BufferedWriter out;
+
+    // outcomes of the candidates of the generation, by operator ordinal
+    private final int[][] outcomes = new int[Operator.values().length][OUTCOMES.length];
+    private int tooLarge;
+
+    long featureGenerationNanos, scoringFitNanos, modelFitNanos;
+    int scoringFitPasses, modelFitPasses;
+    int archiveTurnover;
+
+    /**
+     * Create the metrics file of a run, replacing any previous one
+     * @param path
+     * @throws IOException
+     */
+    public RunMetrics(String path) throws IOException {
+        out = new BufferedWriter(new FileWriter(path));
+    }
+
+    /**
+     * clear the counters, to be called at the start of each generation
+     */
+    void startGeneration() {
+        for (int[] counts : outcomes) {
+            Arrays.fill(counts, 0);
+        }
+        tooLarge = 0;
+        featureGenerationNanos = 0;
+        scoringFitNanos = 0;
+        modelFitNanos = 0;
+        scoringFitPasses = 0;
+        modelFitPasses = 0;
+        archiveTurnover = 0;
+    }
+
+    /**
+     * count a candidate feature composed with an operator
+     * @param operator
+     * @param outcome value returned by EFMScaledData.compose
+     */
+    void countCandidate(Operator operator, byte outcome) {
+        outcomes[operator.ordinal()][outcome]++;
+    }
+
+    /**
+     * count a candidate feature whose parents are too large to be composed
+     */
+    void countTooLarge() {
+        tooLarge++;
+    }
+
+    /**
+     * Write the line of a generation and flush it
+     * @param generation
+     * @param seconds time since the start of the run
+     * @param currentMse
+     * @param currentMae
+     * @param bestMse
+     * @throws IOException
+     */
+    void writeGeneration(int generation, double seconds, double currentMse, double currentMae, double bestMse) throws IOException {
+        Runtime runtime = Runtime.getRuntime();
+        StringBuilder line = new StringBuilder(512);
+        line.append("{\"generation\":").append(generation);
+        appendNumber(line.append(",\"seconds\":"), seconds);
+        appendNumber(line.append(",\"featureGenerationMs\":"), featureGenerationNanos / 1e6);
+        appendNumber(line.append(",\"scoringFitMs\":"), scoringFitNanos / 1e6);
+        appendNumber(line.append(",\"modelFitMs\":"), modelFitNanos / 1e6);
+        line.append(",\"scoringFitPasses\":").append(scoringFitPasses);
+        line.append(",\"modelFitPasses\":").append(modelFitPasses);
+        appendNumber(line.append(",\"currentMse\":"), currentMse);
+        appendNumber(line.append(",\"currentMae\":"), currentMae);
+        appendNumber(line.append(",\"bestMse\":"), bestMse);
+
+        int[] totals = new int[OUTCOMES.length];
+        for (int[] counts : outcomes) {
+            for (int k = 0; k < OUTCOMES.length; k++) {
+                totals[k] += counts[k];
+            }
+        }
+        line.append(",\"candidates\":");
+        appendCounts(line, totals, tooLarge);
+        line.append(",\"operators\":{");
+        boolean first = true;
+        for (Operator operator : Operator.values()) {
+            int[] counts = outcomes[operator.ordinal()];
+            if (sum(counts) == 0) {
+                continue;
+            }
+            if (!first) {
+                line.append(',');
+            }
+            first = false;
+            appendString(line, operator.getLabel());
+            line.append(':');
+            appendCounts(line, counts, -1);
+        }
+        line.append('}');
+        line.append(",\"archiveTurnover\":").append(archiveTurnover);
+        line.append(",\"heapUsedBytes\":").append(runtime.totalMemory() - runtime.freeMemory());
+        line.append(",\"heapMaxBytes\":").append(runtime.maxMemory());
+        line.append("}\n");
+        out.write(line.toString());
+        out.flush();
+    }
+
+    /**
+     * close the metrics file
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /*
+    * counts of the outcomes, tooLarge being omitted when negative
+    */
+    private static void appendCounts(StringBuilder line, int[] counts, int tooLarge) {
+        int generated = sum(counts) + Math.max(0, tooLarge);
+        line.append("{\"generated\":").append(generated);
+        for (int k = 0; k < OUTCOMES.length; k++) {
+            line.append(",\"").append(OUTCOMES[k]).append("\":").append(counts[k]);
+        }
+        if (tooLarge >= 0) {
+            line.append(",\"tooLarge\":").append(tooLarge);
+        }
+        line.append('}');
+    }
+
+    private static int sum(int[] counts) {
+        int sum = 0;
+        for (int count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    private static void appendNumber(StringBuilder line, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            line.append("null");
+        } else {
+            line.append(value);
+        }
+    }
+
+    private static void appendString(StringBuilder line, String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                line.append('\\').append(c);
+            } else if (c < ' ') {
+                line.append(String.format("\\u%04x", (int) c));
+            } else {
+                line.append(c);
+            }
+        }
+        line.append('"');
+    }
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.benchmark;
+
+import evofmj.evaluation.Dataset;
+import evofmj.evaluation.java.EFMScaledData;
+import evofmj.math.Operator;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmarks the feature construction kernels of EFMScaledData on synthetic
+ * data sets of several sizes, to measure changes of the storage layout or of
+ * the kernels:
+ *
+ * kernel: the column kernel of each operator of the EFM method alone;
+ * compose: the complete composition of a feature with each operator, as done
+ * by the multiplication, division, ... methods of EFMScaledData (interning,
+ * duplicate check, kernel and validity check);
+ * checkValidity, computeCorrelation: over a feature that passes the checks;
+ * isNewFeature: over a feature that is not in the population, which scans
+ * every slot, so its cost depends on the number of features and not on the
+ * number of rows.
+ *
+ * The data sets have the layout used by training: for n original features,
+ * 3n archive features and n new features. Each benchmark is warmed up, then
+ * timed over several samples whose median is reported, in ns per call, ns
+ * per row and GB/s, the latter counting the bytes of the columns read and
+ * written per row. Data sets that would take more than half of the heap are
+ * skipped.
+ *
+ * @author Ignacio Arnaldo
+ */
+public class FeatureKernelBenchmark {
+
+    /**
+     * default numbers of rows of the data sets
+     */
+    public static final int[] DEFAULT_ROWS = {10000, 100000, 1000000, 10000000};
+
+    /**
+     * default numbers of original features of the data sets
+     */
+    public static final int[] DEFAULT_FEATURES = {4, 16};
+
+    // the operators of the EFM method and the EFMScaledData methods composing with them
+    private static final Operator[] OPERATORS = {
+        Operator.MULTIPLY, Operator.DIVIDE, Operator.PLUS, Operator.MINUS, Operator.LOG, Operator.EXP,
+        Operator.SQRT, Operator.SQUARE, Operator.CUBE, Operator.SIN, Operator.COS
+    };
+    private static final String[] METHOD_NAMES = {
+        "multiplication", "division", "sum", "minus", "log", "exp",
+        "sqrt", "square", "cube", "sin", "cos"
+    };
+
+    // number of timed samples of each benchmark, the median is reported
+    private static final int SAMPLES = 5;
+
+    // fraction of the time of a benchmark spent warming up
+    private static final double WARMUP_FRACTION = 0.2;
+
+    // receives the results of the benchmarked calls, so that they are not optimized away
+    private static volatile double sink;
+
+    private final int[] rowCounts;
+    private final int[] featureCounts;
+    private final double secondsPerBenchmark;
+
+    /**
+     * @param someRowCounts numbers of rows of the data sets
+     * @param someFeatureCounts numbers of original features of the data sets, at least 2
+     * @param aSecondsPerBenchmark time spent on each benchmark, warm-up included
+     */
+    public FeatureKernelBenchmark(int[] someRowCounts, int[] someFeatureCounts, double aSecondsPerBenchmark) {
+        rowCounts = someRowCounts;
+        featureCounts = someFeatureCounts;
+        secondsPerBenchmark = aSecondsPerBenchmark;
+    }
+
+    /**
+     * run the benchmarks on every data set and print a line per benchmark
+     * @param out
+     */
+    public void run(PrintStream out) {
+        out.println(String.format("%-8s %-18s %10s %8s %12s %10s %8s", "group", "benchmark", "rows", "features", "ns/call", "ns/row", "GB/s"));
+        for (int numberOfFeatures : featureCounts) {
+            for (int numberOfRows : rowCounts) {
+                if (numberOfFeatures < 2 || numberOfRows < 1) {
+                    out.println("skipped " + numberOfRows + " rows x " + numberOfFeatures + " features: at least 1 row and 2 features are needed");
+                    continue;
+                }
+                // original, archive and new features plus the targets
+                long bytes = 8L * numberOfRows * (5L * numberOfFeatures + 1);
+                if (bytes > Runtime.getRuntime().maxMemory() / 2) {
+                    out.println("skipped " + numberOfRows + " rows x " + numberOfFeatures + " features: " + (bytes >> 20) + "MB exceeds half of the heap");
+                    continue;
+                }
+                run(out, numberOfRows, numberOfFeatures);
+            }
+        }
+    }
+
+    /*
+    * run the benchmarks on a data set
+    */
+    private void run(PrintStream out, final int numberOfRows, int numberOfFeatures) {
+        final EFMScaledData data = createData(numberOfRows, numberOfFeatures);
+        final int scratch = data.getNumberOfTotalFeatures() - 1;
+        final double[] x0 = data.getColumn(0);
+        final double[] x1 = data.getColumn(1);
+        final double[] column = data.getColumn(scratch);
+
+        for (int k = 0; k < OPERATORS.length; k++) {
+            final Operator operator = OPERATORS[k];
+            double nanos;
+            if (operator.getArity() == 2) {
+                nanos = measure(new Kernel() {
+                    @Override
+                    double run() {
+                        operator.apply(x0, x1, column, numberOfRows);
+                        return column[numberOfRows - 1];
+                    }
+                });
+            } else {
+                nanos = measure(new Kernel() {
+                    @Override
+                    double run() {
+                        operator.apply(x0, column, numberOfRows);
+                        return column[numberOfRows - 1];
+                    }
+                });
+            }
+            print(out, "kernel", METHOD_NAMES[k], numberOfRows, numberOfFeatures, nanos, 8 * (operator.getArity() + 1));
+        }
+
+        for (int k = 0; k < OPERATORS.length; k++) {
+            final Operator operator = OPERATORS[k];
+            final int parent2 = operator.getArity() == 2 ? 1 : -1;
+            double nanos = measure(new Kernel() {
+                @Override
+                double run() {
+                    return data.compose(operator, scratch, 0, parent2);
+                }
+            });
+            print(out, "compose", METHOD_NAMES[k], numberOfRows, numberOfFeatures, nanos, 0);
+        }
+
+        double nanos = measure(new Kernel() {
+            @Override
+            double run() {
+                return data.checkValidity(1, 0, -1) ? 1 : 0;
+            }
+        });
+        print(out, "check", "checkValidity", numberOfRows, numberOfFeatures, nanos, 24);
+
+        nanos = measure(new Kernel() {
+            @Override
+            double run() {
+                return data.computeCorrelation(1, 0);
+            }
+        });
+        print(out, "check", "computeCorrelation", numberOfRows, numberOfFeatures, nanos, 16);
+
+        // a feature that is in no other slot, so that every slot is scanned
+        data.compose(Operator.MULTIPLY, scratch, 0, 1);
+        nanos = measure(new Kernel() {
+            @Override
+            double run() {
+                return data.isNewFeature(scratch) ? 1 : 0;
+            }
+        });
+        print(out, "check", "isNewFeature", numberOfRows, numberOfFeatures, nanos, -1);
+    }
+
+    /*
+    * data matrix over normally distributed features and targets, its
+    * archive and new features being copies of the original features
+    */
+    private static EFMScaledData createData(int numberOfRows, int numberOfFeatures) {
+        Random random = new Random(1);
+        double[][] columns = new double[numberOfFeatures][numberOfRows];
+        for (double[] values : columns) {
+            for (int i = 0; i < numberOfRows; i++) {
+                values[i] = random.nextGaussian();
+            }
+        }
+        double[] targets = new double[numberOfRows];
+        for (int i = 0; i < numberOfRows; i++) {
+            targets[i] = random.nextGaussian();
+        }
+        EFMScaledData data = new EFMScaledData(3 * numberOfFeatures, numberOfFeatures, new Dataset(columns, targets, numberOfRows));
+        data.fillInitialArchiveandNewFeatures(random);
+        return data;
+    }
+
+    /*
+    * median time of a call in nanoseconds, after a warm-up that also
+    * calibrates the number of calls per sample
+    */
+    private double measure(Kernel kernel) {
+        double result = 0;
+        long start = System.nanoTime();
+        long warmupEnd = start + (long) (secondsPerBenchmark * WARMUP_FRACTION * 1e9);
+        long calls = 0;
+        do {
+            result += kernel.run();
+            calls++;
+        } while (System.nanoTime() < warmupEnd);
+        double nanosPerCall = (double) (System.nanoTime() - start) / calls;
+        double sampleNanos = secondsPerBenchmark * (1 - WARMUP_FRACTION) * 1e9 / SAMPLES;
+        long callsPerSample = Math.max(1, (long) (sampleNanos / nanosPerCall));
+        double[] samples = new double[SAMPLES];
+        for (int s = 0; s < SAMPLES; s++) {
+            long sampleStart = System.nanoTime();
+            for (long c = 0; c < callsPerSample; c++) {
+                result += kernel.run();
+            }
+            samples[s] = (double) (System.nanoTime() - sampleStart) / callsPerSample;
+        }
+        sink += result;
+        Arrays.sort(samples);
+        return samples[SAMPLES / 2];
+    }
+
+    /*
+    * print the line of a benchmark; bytesPerRow is 0 when the bytes accessed
+    * per row are not known, and negative when the cost does not depend on the
+    * number of rows
+    */
+    private static void print(PrintStream out, String group, String name, int numberOfRows, int numberOfFeatures, double nanosPerCall, int bytesPerRow) {
+        String nanosPerRow = bytesPerRow < 0 ? "-" : String.format("%.3f", nanosPerCall / numberOfRows);
+        String gigabytesPerSecond = bytesPerRow <= 0 ? "-" : String.format("%.2f", (double) bytesPerRow * numberOfRows / nanosPerCall);
+        out.println(String.format("%-8s %-18s %10d %8d %12.0f %10s %8s", group, name, numberOfRows, numberOfFeatures, nanosPerCall, nanosPerRow, gigabytesPerSecond));
+    }
+
+    /*
+    * a benchmarked call, returning a value that depends on its work
+    */
+    private abstract static class Kernel {
+
+        abstract double run();
+    }
+}
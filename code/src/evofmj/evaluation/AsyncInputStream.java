@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.evaluation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a stream on a separate thread, so that decoding a compressed file
+ * runs in parallel with parsing it. The reading thread fills blocks of
+ * BLOCK_SIZE bytes and hands them over through a bounded queue, which limits
+ * the memory used when the reader is faster than the consumer. Closing the
+ * stream stops the reading thread, even when it waits for room in a full
+ * queue, so a consumer that stops early does not leak the thread and its
+ * blocks.
+ *
+ * @author Ignacio Arnaldo
+ */
+public class AsyncInputStream extends InputStream {
+
+    /**
+     * size of the blocks read by the reading thread
+     */
+    public static final int BLOCK_SIZE = 1 << 20;
+
+    // number of blocks read ahead
+    private static final int QUEUE_CAPACITY = 8;
+
+    // interval at which a reading thread waiting for room checks whether the stream is closed
+    private static final long CLOSE_POLL_INTERVAL_MS = 100;
+
+    // marks the end of the stream in the queue
+    private static final byte[] END = new byte[0];
+
+    private final InputStream source;
+    private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY);
+    private final Thread reader;
+
+    // failure of the reading thread, reported once the blocks read before it are consumed
+    private volatile IOException failure;
+
+    // set by close, stops the reading thread
+    private volatile boolean closed;
+
+    // block being consumed
+    private byte[] block = new byte[0];
+    private int position;
+    private boolean ended;
+
+    /**
+     * start reading a stream
+     * @param aSource
+     * @param name name of the reading thread
+     */
+    public AsyncInputStream(InputStream aSource, String name) {
+        source = aSource;
+        reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readSource();
+            }
+        }, name);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /*
+    * body of the reading thread
+    */
+    private void readSource() {
+        try {
+            while (!closed) {
+                byte[] b = new byte[BLOCK_SIZE];
+                int n = 0;
+                while (n < b.length) {
+                    int r = source.read(b, n, b.length - n);
+                    if (r < 0) {
+                        break;
+                    }
+                    n += r;
+                }
+                if (n > 0 && !enqueue(n == b.length ? b : Arrays.copyOf(b, n))) {
+                    break;
+                }
+                if (n < b.length) {
+                    break;
+                }
+            }
+        } catch (Throwable e) {
+            // the stream of a codec may fail with any exception
+            failure = e instanceof IOException ? (IOException) e : new IOException("Error reading stream: " + e, e);
+        }
+        // always end the queue, so that the consumer never waits forever
+        if (!enqueue(END)) {
+            // closed by the consumer, which no longer reads the blocks
+            blocks.clear();
+            blocks.offer(END);
+        }
+    }
+
+    /*
+    * queue a block, waiting for room until the consumer closes the stream;
+    * returns false if it was closed. The closed flag is polled, since the
+    * interrupt of close may have been consumed by the source.
+    */
+    private boolean enqueue(byte[] b) {
+        try {
+            while (!closed) {
+                if (blocks.offer(b, CLOSE_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed by the consumer
+        }
+        return false;
+    }
+
+    /*
+    * make the next block current, returns false at the end of the stream
+    */
+    private boolean nextBlock() throws IOException {
+        if (ended) {
+            return false;
+        }
+        try {
+            block = blocks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while reading");
+        }
+        position = 0;
+        if (block == END) {
+            ended = true;
+            if (failure != null) {
+                throw failure;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == block.length && !nextBlock()) {
+            return -1;
+        }
+        return block[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == block.length && !nextBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, block.length - position);
+        System.arraycopy(block, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return block.length - position;
+    }
+
+    /**
+     * Stop the reading thread and close the source. The thread is waited
+     * for, up to a few poll intervals, so that it no longer holds its blocks
+     * once the stream is closed.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        reader.interrupt();
+        source.close();
+        try {
+            reader.join(4 * CLOSE_POLL_INTERVAL_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
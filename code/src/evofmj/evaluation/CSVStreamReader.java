@@ -0,0 +1,173 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.evaluation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads the rows of a CSV stream into columns, a range of rows at a time, so
+ * that a stream can be parsed in a single pass without holding all its rows.
+ * The stream is read in blocks, and the complete lines of each block are
+ * parsed with {@link FastDoubleParser}; the block is doubled when a line does
+ * not fit in it. Blank lines are skipped, and every row must have the number
+ * of columns of the first row.
+ *
+ * @author Ignacio Arnaldo
+ */
+public final class CSVStreamReader implements Closeable {
+
+    // initial size of the block buffer
+    private static final int READ_BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final String name;
+
+    private byte[] bytes = new byte[READ_BUFFER_SIZE];
+    private ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+    // next byte to parse, end of the complete lines and end of the bytes read
+    private int pos, limit, filled;
+    private boolean endOfStream;
+
+    // number of lines parsed or skipped
+    private int lineNumber;
+
+    // number of columns of the first row, targets included, 0 until known
+    private int numberOfColumns;
+
+    /**
+     * @param anInput
+     * @param aName name of the source, for error messages
+     */
+    public CSVStreamReader(InputStream anInput, String aName) {
+        in = anInput;
+        name = aName;
+    }
+
+    /**
+     * @return the number of columns of the first row, the target included
+     * @throws IOException if the stream can't be read, or has no rows
+     */
+    public int getNumberOfColumns() throws IOException {
+        if (numberOfColumns == 0) {
+            if (!skipBlankLines()) {
+                throw new IOException("Error: empty file " + name);
+            }
+            numberOfColumns = MappedCSVReader.countColumns(buffer, pos, limit);
+        }
+        return numberOfColumns;
+    }
+
+    /**
+     * Read the next rows of the stream
+     * @param columns receive the values of the variables, one array per
+     *        variable, getNumberOfColumns() - 1 arrays
+     * @param targets receives the target values
+     * @param from index of the first row to fill
+     * @param to index after the last row to fill
+     * @return the number of rows read, less than to - from only at the end
+     *         of the stream
+     * @throws IOException if the stream can't be read, or a row does not
+     *         have the number of columns of the first row
+     */
+    public int read(double[][] columns, double[] targets, int from, int to) throws IOException {
+        if (columns.length != getNumberOfColumns() - 1) {
+            throw new IllegalArgumentException("expected " + (numberOfColumns - 1) + " columns, got " + columns.length);
+        }
+        int row = from;
+        while (row < to && skipBlankLines()) {
+            lineNumber++;
+            try {
+                pos = MappedCSVReader.parseRow(buffer, pos, limit, columns, targets, row) + 1;
+            } catch (NumberFormatException e) {
+                throw new IOException(name + ":" + lineNumber + ": " + e.getMessage());
+            }
+            row++;
+        }
+        return row - from;
+    }
+
+    /**
+     * close the stream
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /*
+    * move to the next row that is not blank, reading the stream as needed;
+    * false at the end of the stream
+    */
+    private boolean skipBlankLines() throws IOException {
+        while (true) {
+            if (pos >= limit && !readLines()) {
+                return false;
+            }
+            int end = pos;
+            while (end < limit && bytes[end] <= ' ' && bytes[end] != '\n') {
+                end++;
+            }
+            if (end < limit && bytes[end] != '\n') {
+                return true;
+            }
+            lineNumber++;
+            pos = end + 1;
+        }
+    }
+
+    /*
+    * replace the parsed lines with the next complete lines of the stream, the
+    * last line of the stream being complete even without a newline; false
+    * when there are no more lines
+    */
+    private boolean readLines() throws IOException {
+        System.arraycopy(bytes, limit, bytes, 0, filled - limit);
+        filled -= limit;
+        pos = 0;
+        limit = 0;
+        while (!endOfStream) {
+            if (filled == bytes.length) {
+                bytes = Arrays.copyOf(bytes, 2 * bytes.length);
+                buffer = ByteBuffer.wrap(bytes);
+            }
+            int n = in.read(bytes, filled, bytes.length - filled);
+            if (n < 0) {
+                endOfStream = true;
+                break;
+            }
+            filled += n;
+            limit = filled;
+            while (limit > 0 && bytes[limit - 1] != '\n') {
+                limit--;
+            }
+            if (limit > 0) {
+                return true;
+            }
+        }
+        limit = filled;
+        return limit > 0;
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.evaluation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A data set loaded in memory by columns: the values of each explanatory
+ * variable and the target values, which are in the last column of the CSV.
+ * CSV files are parsed in parallel by {@link MappedCSVReader}; compressed
+ * files and streams are read in a single pass, into column buffers that grow as rows are read, so
+ * neither the number of rows nor the number of columns has to be known in
+ * advance. A loaded data set is read-only, and can be shared by several
+ * trainings and tests.
+ *
+ * @author Ignacio Arnaldo
+ */
+public class Dataset {
+
+    // initial number of rows of the column buffers
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int numberOfRows;
+    private final int numberOfFeatures;
+
+    // columns[j][i] is the value of variable j in row i
+    private final double[][] columns;
+    private final double[] targets;
+    private final double targetMin, targetMax;
+
+    /**
+     * Wrap columns already in memory
+     * @param someColumns values of the variables, one array per variable
+     * @param someTargets target values
+     * @param aNumberOfRows number of rows, each array must hold at least as many values
+     */
+    public Dataset(double[][] someColumns, double[] someTargets, int aNumberOfRows) {
+        columns = someColumns;
+        targets = someTargets;
+        numberOfRows = aNumberOfRows;
+        numberOfFeatures = someColumns.length;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < numberOfRows; i++) {
+            min = Math.min(min, targets[i]);
+            max = Math.max(max, targets[i]);
+        }
+        targetMin = min;
+        targetMax = max;
+    }
+
+    /**
+     * Load a CSV with one row per line, the target value being the last
+     * column. Empty lines are skipped. Regular files are memory-mapped and
+     * parsed with one thread per processor.
+     * @param csvPath
+     * @return the data set
+     * @throws IOException if the file can't be read, or a line does not have
+     *         the number of columns of the first line
+     */
+    public static Dataset load(String csvPath) throws IOException {
+        return load(csvPath, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Load a CSV with one row per line, the target value being the last
+     * column. Empty lines are skipped. Compressed files are decoded by their
+     * {@link InputCodec} on a separate thread while they are parsed; other
+     * regular files are memory-mapped and parsed in parallel, and the
+     * remaining files, such as pipes, are read as streams.
+     * @param csvPath
+     * @param numberOfThreads number of threads parsing a regular file
+     * @return the data set
+     * @throws IOException if the file can't be read, or a line does not have
+     *         the number of columns of the first line
+     */
+    public static Dataset load(String csvPath, int numberOfThreads) throws IOException {
+        InputCodec codec = InputCodecs.forPath(csvPath);
+        if (codec != null) {
+            return load(new AsyncInputStream(codec.open(csvPath), "decode " + csvPath), csvPath);
+        }
+        if (new File(csvPath).isFile()) {
+            return MappedCSVReader.read(csvPath, numberOfThreads);
+        }
+        return load(new FileInputStream(csvPath), csvPath);
+    }
+
+    /**
+     * Load a CSV file through its binary cache: the cache is mapped if it is
+     * valid for the current content of the file, otherwise the CSV is parsed
+     * and the cache is written for the next runs. A cache that can't be
+     * written is reported, and the data set is returned anyway.
+     * @param csvPath
+     * @return the data set
+     * @throws IOException if the file can't be read, or a line does not have
+     *         the number of columns of the first line
+     * @see DatasetCache
+     */
+    public static Dataset loadCached(String csvPath) throws IOException {
+        File source = new File(csvPath);
+        if (!source.isFile()) {
+            return load(csvPath);
+        }
+        long sourceSize = source.length();
+        long sourceModified = source.lastModified();
+        Dataset data = null;
+        try {
+            data = DatasetCache.load(csvPath);
+        } catch (IOException e) {
+            System.err.println("Warning: ignoring the cache of " + csvPath + ": " + e.getMessage());
+        }
+        if (data == null) {
+            data = load(csvPath);
+            try {
+                DatasetCache.save(data, csvPath, sourceSize, sourceModified);
+            } catch (IOException e) {
+                System.err.println("Warning: could not write the cache of " + csvPath + ": " + e.getMessage());
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Load a CSV from a stream, in a single pass into column buffers that
+     * grow as rows are read by a {@link CSVStreamReader}. The stream is
+     * closed.
+     * @param in
+     * @param name name of the source, for error messages
+     * @return the data set
+     * @throws IOException if the stream can't be read, or a line does not
+     *         have the number of columns of the first line
+     */
+    public static Dataset load(InputStream in, String name) throws IOException {
+        CSVStreamReader reader = new CSVStreamReader(in, name);
+        try {
+            double[][] columns = new double[reader.getNumberOfColumns() - 1][INITIAL_CAPACITY];
+            double[] targets = new double[INITIAL_CAPACITY];
+            int numberOfRows = 0;
+            while (true) {
+                if (numberOfRows == targets.length) {
+                    int capacity = 2 * targets.length;
+                    for (int j = 0; j < columns.length; j++) {
+                        columns[j] = Arrays.copyOf(columns[j], capacity);
+                    }
+                    targets = Arrays.copyOf(targets, capacity);
+                }
+                numberOfRows += reader.read(columns, targets, numberOfRows, targets.length);
+                if (numberOfRows < targets.length) {
+                    break;
+                }
+            }
+            for (int j = 0; j < columns.length; j++) {
+                columns[j] = Arrays.copyOf(columns[j], numberOfRows);
+            }
+            targets = Arrays.copyOf(targets, numberOfRows);
+            return new Dataset(columns, targets, numberOfRows);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int getNumberOfRows() {
+        return numberOfRows;
+    }
+
+    /**
+     * @return the number of explanatory variables
+     */
+    public int getNumberOfFeatures() {
+        return numberOfFeatures;
+    }
+
+    /**
+     * @param index
+     * @return the values of an explanatory variable, must not be modified
+     */
+    public double[] getColumn(int index) {
+        return columns[index];
+    }
+
+    /**
+     * @return the values of the explanatory variables, must not be modified
+     */
+    public double[][] getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return the target values, must not be modified
+     */
+    public double[] getTargetValues() {
+        return targets;
+    }
+
+    /**
+     * @return the smallest target value
+     */
+    public double getTargetMin() {
+        return targetMin;
+    }
+
+    /**
+     * @return the largest target value
+     */
+    public double getTargetMax() {
+        return targetMax;
+    }
+}
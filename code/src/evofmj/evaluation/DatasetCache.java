@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.evaluation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Binary columnar cache of a loaded CSV, written next to it as
+ * &lt;csv&gt;.efscache, so that later runs map the cache instead of parsing
+ * the text. All values are little-endian:
+ *
+ * int magic ("EFSC"), int version,
+ * long size, long last modification time and long CRC32 of the source file,
+ * int numberOfRows, int numberOfFeatures, double targetMin, double targetMax,
+ * then the values of each feature column followed by the target values,
+ * numberOfRows doubles each.
+ *
+ * A cache is used when the size and modification time of the source match
+ * the header; when only the modification time differs, as after a copy, the
+ * source is checksummed and the cache is used if the CRC32 matches.
+ *
+ * @author Ignacio Arnaldo
+ */
+public final class DatasetCache {
+
+    /**
+     * first four bytes of dataset caches, "EFSC"
+     */
+    public static final int MAGIC = 0x45465343;
+
+    /**
+     * version of the format written by save
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * suffix appended to the path of the source file
+     */
+    public static final String SUFFIX = ".efscache";
+
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 8 + 8;
+
+    private DatasetCache() {
+    }
+
+    /**
+     * @param csvPath
+     * @return the path of the cache of a source file
+     */
+    public static String getCachePath(String csvPath) {
+        return csvPath + SUFFIX;
+    }
+
+    /**
+     * Load the cache of a source file
+     * @param csvPath
+     * @return the cached data set, or null if there is no valid cache for the
+     *         current content of the source
+     * @throws IOException if the source can't be read
+     */
+    public static Dataset load(String csvPath) throws IOException {
+        File source = new File(csvPath);
+        File cache = new File(getCachePath(csvPath));
+        if (!cache.isFile() || cache.length() < HEADER_SIZE) {
+            return null;
+        }
+        RandomAccessFile file = new RandomAccessFile(cache, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return null;
+            }
+            long sourceSize = header.getLong();
+            long sourceModified = header.getLong();
+            long sourceCrc = header.getLong();
+            int numberOfRows = header.getInt();
+            int numberOfFeatures = header.getInt();
+            header.getDouble();
+            header.getDouble();
+            if (sourceSize != source.length()) {
+                return null;
+            }
+            if (sourceModified != source.lastModified() && sourceCrc != checksum(csvPath)) {
+                return null;
+            }
+            long columnBytes = 8L * numberOfRows;
+            if (numberOfRows < 0 || numberOfFeatures < 0 || channel.size() != HEADER_SIZE + (numberOfFeatures + 1) * columnBytes) {
+                return null;
+            }
+            double[][] columns = new double[numberOfFeatures][];
+            long offset = HEADER_SIZE;
+            for (int j = 0; j < numberOfFeatures; j++) {
+                columns[j] = readColumn(channel, offset, numberOfRows);
+                offset += columnBytes;
+            }
+            double[] targets = readColumn(channel, offset, numberOfRows);
+            return new Dataset(columns, targets, numberOfRows);
+        } finally {
+            file.close();
+        }
+    }
+
+    /*
+    * copy a column out of the mapped cache
+    */
+    private static double[] readColumn(FileChannel channel, long offset, int numberOfRows) throws IOException {
+        double[] column = new double[numberOfRows];
+        if (numberOfRows > 0) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, 8L * numberOfRows);
+            buffer.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(column);
+        }
+        return column;
+    }
+
+    /**
+     * Write the cache of a source file. The cache is written to a temporary
+     * file which is then renamed, so that a cache is never read half written.
+     * @param data the data set loaded from the source
+     * @param csvPath
+     * @param sourceSize size of the source when it was loaded
+     * @param sourceModified modification time of the source when it was loaded
+     * @return whether the cache was written; it is not when the source
+     *         changed since it was loaded
+     * @throws IOException
+     */
+    public static boolean save(Dataset data, String csvPath, long sourceSize, long sourceModified) throws IOException {
+        long sourceCrc = checksum(csvPath);
+        File source = new File(csvPath);
+        if (source.length() != sourceSize || source.lastModified() != sourceModified) {
+            return false;
+        }
+        File cache = new File(getCachePath(csvPath));
+        File temp = File.createTempFile(cache.getName(), ".tmp", cache.getAbsoluteFile().getParentFile());
+        boolean written = false;
+        RandomAccessFile file = new RandomAccessFile(temp, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(sourceSize);
+            header.putLong(sourceModified);
+            header.putLong(sourceCrc);
+            header.putInt(data.getNumberOfRows());
+            header.putInt(data.getNumberOfFeatures());
+            header.putDouble(data.getTargetMin());
+            header.putDouble(data.getTargetMax());
+            header.flip();
+            writeFully(channel, header);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            for (int j = 0; j < data.getNumberOfFeatures(); j++) {
+                writeColumn(channel, buffer, data.getColumn(j), data.getNumberOfRows());
+            }
+            writeColumn(channel, buffer, data.getTargetValues(), data.getNumberOfRows());
+            written = true;
+        } finally {
+            file.close();
+            if (!written) {
+                temp.delete();
+            }
+        }
+        Files.move(temp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    private static void writeColumn(FileChannel channel, ByteBuffer buffer, double[] column, int numberOfRows) throws IOException {
+        int i = 0;
+        while (i < numberOfRows) {
+            buffer.clear();
+            int n = Math.min(numberOfRows - i, buffer.capacity() / 8);
+            buffer.asDoubleBuffer().put(column, i, n);
+            buffer.limit(8 * n);
+            writeFully(channel, buffer);
+            i += n;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /*
+    * CRC32 of the content of a file
+    */
+    private static long checksum(String path) throws IOException {
+        CRC32 crc = new CRC32();
+        FileInputStream in = new FileInputStream(path);
+        try {
+            byte[] buffer = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.evaluation;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Parses ASCII decimal numbers straight from a byte buffer, without building
+ * Strings. Numbers whose significant digits fit in the 53-bit mantissa of a
+ * double and whose decimal exponent is within [-22, 22], which covers the
+ * values usually written in CSV files, are computed with a single exact
+ * multiplication or division (Clinger's fast path), which is correctly
+ * rounded. Any other input, including NaN and Infinity, falls back to
+ * Double.parseDouble, so the result is always the same as Double.parseDouble.
+ *
+ * @author Ignacio Arnaldo
+ */
+public final class FastDoubleParser {
+
+    // largest mantissa that a double represents exactly
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    // powers of ten that a double represents exactly
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private FastDoubleParser() {
+    }
+
+    /**
+     * Parse the number held in buffer[from, to), ignoring surrounding blanks
+     * @param buffer
+     * @param from first byte, inclusive
+     * @param to last byte, exclusive
+     * @return the value of the number
+     * @throws NumberFormatException if the bytes are not a number
+     */
+    public static double parseDouble(ByteBuffer buffer, int from, int to) {
+        while (from < to && buffer.get(from) <= ' ') {
+            from++;
+        }
+        while (to > from && buffer.get(to - 1) <= ' ') {
+            to--;
+        }
+        int pos = from;
+        boolean negative = false;
+        if (pos < to && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+            negative = buffer.get(pos) == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        while (pos < to) {
+            int d = buffer.get(pos) - '0';
+            if (d < 0 || d > 9) {
+                break;
+            }
+            anyDigit = true;
+            if (mantissa != 0 || d != 0) {
+                significantDigits++;
+                if (significantDigits > 18) {
+                    return fallback(buffer, from, to);
+                }
+                mantissa = 10 * mantissa + d;
+            }
+            pos++;
+        }
+        if (pos < to && buffer.get(pos) == '.') {
+            pos++;
+            while (pos < to) {
+                int d = buffer.get(pos) - '0';
+                if (d < 0 || d > 9) {
+                    break;
+                }
+                anyDigit = true;
+                if (mantissa != 0 || d != 0) {
+                    significantDigits++;
+                    if (significantDigits > 18) {
+                        return fallback(buffer, from, to);
+                    }
+                    mantissa = 10 * mantissa + d;
+                }
+                exponent--;
+                pos++;
+            }
+        }
+        if (!anyDigit) {
+            return fallback(buffer, from, to);
+        }
+        if (pos < to && (buffer.get(pos) == 'e' || buffer.get(pos) == 'E')) {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < to && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+                negativeExponent = buffer.get(pos) == '-';
+                pos++;
+            }
+            int explicitExponent = 0;
+            boolean anyExponentDigit = false;
+            while (pos < to) {
+                int d = buffer.get(pos) - '0';
+                if (d < 0 || d > 9 || explicitExponent > 100000) {
+                    break;
+                }
+                anyExponentDigit = true;
+                explicitExponent = 10 * explicitExponent + d;
+                pos++;
+            }
+            if (!anyExponentDigit) {
+                return fallback(buffer, from, to);
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (pos != to) {
+            // trailing characters such as the 'd' suffix or garbage
+            return fallback(buffer, from, to);
+        }
+        if (mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+            return fallback(buffer, from, to);
+        }
+        double value = mantissa;
+        if (exponent < 0) {
+            value = value / POWERS_OF_TEN[-exponent];
+        } else if (exponent > 0) {
+            value = value * POWERS_OF_TEN[exponent];
+        }
+        return negative ? -value : value;
+    }
+
+    /*
+    * inputs that are not plain decimals are parsed by the JDK
+    */
+    private static double fallback(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = from; i < to; i++) {
+            bytes[i - from] = buffer.get(i);
+        }
+        return Double.parseDouble(new String(bytes, ASCII));
+    }
+}
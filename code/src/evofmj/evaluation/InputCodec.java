@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.evaluation;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes compressed data files. Codecs are registered in
+ * {@link InputCodecs}, which picks the codec of a file from its path.
+ *
+ * @author Ignacio Arnaldo
+ */
+public interface InputCodec {
+
+    /**
+     * @param path
+     * @return whether the file is decoded by this codec, usually decided by
+     *         the extension of the file
+     */
+    boolean accepts(String path);
+
+    /**
+     * @param path
+     * @return a stream over the decoded content of the file
+     * @throws IOException
+     */
+    InputStream open(String path) throws IOException;
+}
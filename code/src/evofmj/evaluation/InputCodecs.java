@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.evaluation;
+
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Registry of the codecs used to read compressed data files. Files ending in
+ * .gz are decoded with the GZIPInputStream of the JDK, and files ending in
+ * .zst by the zstd command line tool, which must be installed. Other codecs,
+ * for instance wrapping a compression library, are added with register, and
+ * take precedence over the built-in ones.
+ *
+ * @author Ignacio Arnaldo
+ */
+public final class InputCodecs {
+
+    // size of the buffers of the built-in decoders
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final List<InputCodec> CODECS = new CopyOnWriteArrayList<InputCodec>();
+
+    static {
+        CODECS.add(new GzipCodec());
+        CODECS.add(new CommandCodec(".zst", "zstd", "-dc"));
+    }
+
+    private InputCodecs() {
+    }
+
+    /**
+     * add a codec, tried before the codecs already registered
+     * @param codec
+     */
+    public static void register(InputCodec codec) {
+        CODECS.add(0, codec);
+    }
+
+    /**
+     * @param path
+     * @return the codec decoding the file, or null if the file is not compressed
+     */
+    public static InputCodec forPath(String path) {
+        for (InputCodec codec : CODECS) {
+            if (codec.accepts(path)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Open a data file, decoding it if it is compressed
+     * @param path
+     * @return a stream over the content of the file
+     * @throws IOException
+     */
+    public static InputStream open(String path) throws IOException {
+        InputCodec codec = forPath(path);
+        if (codec == null) {
+            return new FileInputStream(path);
+        }
+        return codec.open(path);
+    }
+
+    /*
+    * gzip files, decoded by the JDK
+    */
+    private static final class GzipCodec implements InputCodec {
+
+        @Override
+        public boolean accepts(String path) {
+            return path.endsWith(".gz");
+        }
+
+        @Override
+        public InputStream open(String path) throws IOException {
+            return new GZIPInputStream(new FileInputStream(path), BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Files decoded by an external program writing the decoded content to
+     * its standard output, such as "zstd -dc" or "xz -dc". The path of the
+     * file is appended to the command.
+     */
+    public static final class CommandCodec implements InputCodec {
+
+        private final String suffix;
+        private final String[] command;
+
+        /**
+         * @param aSuffix extension of the files decoded by the command
+         * @param someCommand program and arguments
+         */
+        public CommandCodec(String aSuffix, String... someCommand) {
+            suffix = aSuffix;
+            command = someCommand;
+        }
+
+        @Override
+        public boolean accepts(String path) {
+            return path.endsWith(suffix);
+        }
+
+        @Override
+        public InputStream open(String path) throws IOException {
+            List<String> arguments = new ArrayList<String>(Arrays.asList(command));
+            arguments.add(path);
+            ProcessBuilder builder = new ProcessBuilder(arguments);
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            final Process process;
+            try {
+                process = builder.start();
+            } catch (IOException e) {
+                throw new IOException("can't run " + command[0] + " to decode " + path + ": " + e.getMessage());
+            }
+            process.getOutputStream().close();
+            final String name = command[0];
+            return new FilterInputStream(process.getInputStream()) {
+
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b < 0) {
+                        checkExitStatus();
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    int n = super.read(b, off, len);
+                    if (n < 0) {
+                        checkExitStatus();
+                    }
+                    return n;
+                }
+
+                // a decoder failing half way must not pass for a short file
+                private void checkExitStatus() throws IOException {
+                    try {
+                        int status = process.waitFor();
+                        if (status != 0) {
+                            throw new IOException(name + " exited with status " + status);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("interrupted while waiting for " + name);
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    process.destroy();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.evaluation;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads a CSV file by memory-mapping it and parsing it in parallel. The file
+ * is split in chunks that end right after a newline. A first parallel pass
+ * counts the rows of each chunk, which gives the position of the first row
+ * of every chunk and the exact size of the columns. A second parallel pass
+ * parses each chunk with {@link FastDoubleParser}, straight into its rows of
+ * the preallocated columns.
+ *
+ * @author Ignacio Arnaldo
+ */
+final class MappedCSVReader {
+
+    // bounds of the size of the chunks parsed by a task
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+    private static final long MAX_CHUNK_SIZE = 1L << 28;
+
+    // number of chunks per thread, to balance the load of the threads
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private MappedCSVReader() {
+    }
+
+    /**
+     * Load a CSV file, the target value being the last column
+     * @param csvPath
+     * @param numberOfThreads
+     * @return the data set
+     * @throws IOException if the file can't be read, or a line does not have
+     *         the number of columns of the first line
+     */
+    static Dataset read(final String csvPath, int numberOfThreads) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(csvPath, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            long[] bounds = split(channel, size, numberOfThreads);
+            final Chunk[] chunks = new Chunk[bounds.length - 1];
+            for (int c = 0; c < chunks.length; c++) {
+                if (bounds[c + 1] - bounds[c] > Integer.MAX_VALUE) {
+                    throw new IOException(csvPath + ": line longer than 2GB at byte " + bounds[c]);
+                }
+                chunks[c] = new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, bounds[c], bounds[c + 1] - bounds[c]));
+            }
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(numberOfThreads, chunks.length)));
+            try {
+                List<Callable<Void>> counts = new ArrayList<Callable<Void>>();
+                for (final Chunk chunk : chunks) {
+                    counts.add(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            chunk.count();
+                            return null;
+                        }
+                    });
+                }
+                runAll(pool, counts);
+
+                int numberOfRows = 0;
+                int numberOfLines = 0;
+                int numberOfColumns = -1;
+                for (Chunk chunk : chunks) {
+                    chunk.firstRow = numberOfRows;
+                    chunk.firstLine = numberOfLines;
+                    if (numberOfColumns == -1 && chunk.numberOfRows > 0) {
+                        numberOfColumns = chunk.countColumns();
+                    }
+                    if ((long) numberOfRows + chunk.numberOfRows > Integer.MAX_VALUE) {
+                        throw new IOException(csvPath + ": more than " + Integer.MAX_VALUE + " rows");
+                    }
+                    numberOfRows += chunk.numberOfRows;
+                    numberOfLines += chunk.numberOfLines;
+                }
+                if (numberOfColumns == -1) {
+                    throw new IOException("Error: empty file " + csvPath);
+                }
+
+                final double[][] columns = new double[numberOfColumns - 1][numberOfRows];
+                final double[] targets = new double[numberOfRows];
+                List<Callable<Void>> parses = new ArrayList<Callable<Void>>();
+                for (final Chunk chunk : chunks) {
+                    parses.add(new Callable<Void>() {
+                        @Override
+                        public Void call() throws IOException {
+                            chunk.parse(csvPath, columns, targets);
+                            return null;
+                        }
+                    });
+                }
+                runAll(pool, parses);
+                return new Dataset(columns, targets, numberOfRows);
+            } finally {
+                pool.shutdown();
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /*
+    * offsets of the chunks: each chunk but the last one ends right after a newline
+    */
+    private static long[] split(FileChannel channel, long size, int numberOfThreads) throws IOException {
+        long chunkSize = size / Math.max(1, numberOfThreads * CHUNKS_PER_THREAD);
+        chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, chunkSize));
+        ArrayList<Long> bounds = new ArrayList<Long>();
+        bounds.add(0L);
+        ByteBuffer window = ByteBuffer.allocate(1 << 16);
+        long start = 0;
+        while (start + chunkSize < size) {
+            long pos = start + chunkSize;
+            long end = size;
+            while (pos < size && end == size) {
+                window.clear();
+                int n = channel.read(window, pos);
+                if (n <= 0) {
+                    break;
+                }
+                for (int i = 0; i < n; i++) {
+                    if (window.get(i) == '\n') {
+                        end = pos + i + 1;
+                        break;
+                    }
+                }
+                pos += n;
+            }
+            if (end >= size) {
+                break;
+            }
+            bounds.add(end);
+            start = end;
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int c = 0; c < result.length; c++) {
+            result[c] = bounds.get(c);
+        }
+        return result;
+    }
+
+    /*
+    * run tasks on the pool, rethrowing the first failure
+    */
+    private static void runAll(ExecutorService pool, List<Callable<Void>> tasks) throws IOException {
+        List<Future<Void>> futures;
+        try {
+            futures = pool.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while loading data");
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while loading data");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * @param buffer
+     * @param pos first byte of a row
+     * @param limit end of the buffer
+     * @return the number of columns of the row
+     */
+    static int countColumns(ByteBuffer buffer, int pos, int limit) {
+        int columns = 1;
+        while (pos < limit && buffer.get(pos) != '\n') {
+            if (buffer.get(pos) == ',') {
+                columns++;
+            }
+            pos++;
+        }
+        return columns;
+    }
+
+    /**
+     * Parse a row of numbers separated by commas, the last one being the
+     * target value
+     * @param buffer
+     * @param pos first byte of the row
+     * @param limit end of the buffer
+     * @param columns receive the values of the variables of the row
+     * @param targets receives the target value of the row
+     * @param row index of the row in the columns
+     * @return the position of the newline ending the row, or limit
+     * @throws NumberFormatException if a value is not a number, or the row
+     *         does not have one value per column plus the target
+     */
+    static int parseRow(ByteBuffer buffer, int pos, int limit, double[][] columns, double[] targets, int row) {
+        for (int j = 0; j <= columns.length; j++) {
+            int end = pos;
+            while (end < limit && buffer.get(end) != ',' && buffer.get(end) != '\n') {
+                end++;
+            }
+            boolean lastField = end == limit || buffer.get(end) == '\n';
+            if (lastField != (j == columns.length)) {
+                throw new NumberFormatException("expected " + (columns.length + 1) + " columns");
+            }
+            double value = FastDoubleParser.parseDouble(buffer, pos, end);
+            if (j < columns.length) {
+                columns[j][row] = value;
+            } else {
+                targets[row] = value;
+            }
+            pos = end + 1;
+        }
+        return pos - 1;
+    }
+
+    /*
+    * a range of lines of the file
+    */
+    private static final class Chunk {
+
+        private final MappedByteBuffer buffer;
+        private final int length;
+
+        // number of non-blank lines and of lines of the chunk
+        int numberOfRows, numberOfLines;
+
+        // index of the first row and of the first line of the chunk in the file
+        int firstRow, firstLine;
+
+        Chunk(MappedByteBuffer aBuffer) {
+            buffer = aBuffer;
+            length = aBuffer.limit();
+        }
+
+        /*
+        * count the lines and the non-blank lines
+        */
+        void count() {
+            int rows = 0;
+            int lines = 0;
+            boolean blank = true;
+            for (int i = 0; i < length; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n') {
+                    lines++;
+                    if (!blank) {
+                        rows++;
+                    }
+                    blank = true;
+                } else if (b > ' ') {
+                    blank = false;
+                }
+            }
+            if (length > 0 && buffer.get(length - 1) != '\n') {
+                lines++;
+                if (!blank) {
+                    rows++;
+                }
+            }
+            numberOfRows = rows;
+            numberOfLines = lines;
+        }
+
+        /*
+        * number of columns of the first non-blank line
+        */
+        int countColumns() {
+            return MappedCSVReader.countColumns(buffer, skipBlankLines(0), length);
+        }
+
+        /*
+        * position of the first non-blank byte, skipping blank lines
+        */
+        private int skipBlankLines(int pos) {
+            while (pos < length && buffer.get(pos) <= ' ') {
+                pos++;
+            }
+            return pos;
+        }
+
+        /*
+        * parse the rows of the chunk into their entries of the columns
+        */
+        void parse(String csvPath, double[][] columns, double[] targets) throws IOException {
+            int row = firstRow;
+            int line = firstLine;
+            int pos = 0;
+            while (pos < length) {
+                int start = pos;
+                while (pos < length && buffer.get(pos) <= ' ' && buffer.get(pos) != '\n') {
+                    pos++;
+                }
+                if (pos == length || buffer.get(pos) == '\n') {
+                    // blank line
+                    line++;
+                    pos++;
+                    continue;
+                }
+                try {
+                    pos = parseRow(buffer, start, length, columns, targets, row) + 1;
+                } catch (NumberFormatException e) {
+                    throw new IOException(csvPath + ":" + (line + 1) + ": " + e.getMessage());
+                }
+                row++;
+                line++;
+            }
+        }
+    }
+}
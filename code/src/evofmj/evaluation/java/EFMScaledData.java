@@ -19,13 +19,11 @@
  */
 package evofmj.evaluation.java;
 
-import evofmj.evaluation.DataSizeRetreiver;
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import evofmj.evaluation.Dataset;
+import evofmj.math.ExpressionPool;
+import evofmj.math.Operator;
+import evofmj.math.PostfixProgram;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.Charset;
 import java.util.Random;
 
 /**
@@ -46,25 +44,76 @@ public class EFMScaledData {
     // the number of new features composed at each generation
     private int numberOfNewFeatures;
 
-    // the matrix composed of n number of exemplars * (numberOfOriginalFeatures+numberOfArchiveFeatures+numberOfNewFeatures)
+    // the matrix composed of (numberOfOriginalFeatures+numberOfArchiveFeatures+numberOfNewFeatures) * n number of exemplars,
+    // stored by columns: dataMatrix[j] holds the values of feature j for all the exemplars
     private final double[][] dataMatrix;
     
-    // the string representation of features
-    String[] featureStrings;
+    // the expressions of the features, interned in expressionPool
+    private final ExpressionPool expressionPool;
+    
+    // the node of expressionPool holding the expression of each feature
+    int[] featureNodes;
+    
+    // the node of the zero feature (- X0 X0) standing for rejected features
+    private final int deadFeatureNode;
     
     // the size of the features: number of operators + number of variables included in the complex feature
     int[] featureSizes;
     
+    /**
+     * slot state: the values of the feature were computed in the current generation
+     */
+    public static final byte SLOT_LIVE = 0;
+    
+    /**
+     * slot state: the values of the feature were kept from a previous generation
+     */
+    public static final byte SLOT_UNCHANGED = 1;
+    
+    /**
+     * slot state: the candidate feature was rejected, its values are stale and
+     * the slot must be left out of the fits
+     */
+    public static final byte SLOT_DEAD = 2;
+    
+    // the state of each feature slot
+    byte[] slotStates;
+    
+    /**
+     * outcome of compose: the new feature was computed and kept
+     */
+    public static final byte COMPOSED = 0;
+    
+    /**
+     * outcome of compose: a parent was dead, the new feature was not computed
+     */
+    public static final byte REJECTED_DEAD_PARENT = 1;
+    
+    /**
+     * outcome of compose: another feature has the same expression
+     */
+    public static final byte REJECTED_DUPLICATE = 2;
+    
+    /**
+     * outcome of compose: the new feature has NaN or infinite values
+     */
+    public static final byte REJECTED_INVALID = 3;
+    
+    /**
+     * outcome of compose: the new feature is too correlated with a parent
+     */
+    public static final byte REJECTED_CORRELATED = 4;
+    
     /**
      * the true/target values
      */
     private final double[] target;
 
     // minimum target value
-    private Double target_min;
+    private final double target_min;
     
     // maximum target value
-    private Double target_max;
+    private final double target_max;
        
     // Maximum correlation allowed between new features and their parents
     private double CORR_THRESHOLD = 0.95;
@@ -77,21 +126,38 @@ public class EFMScaledData {
      * @throws IOException
      */
     public EFMScaledData(int aNumberOfArchiveFeatures, int aNumberOfNewFeatures,String csvPath) throws IOException {
-        numberOfFitnessCases = DataSizeRetreiver.num_fitness_cases(csvPath);
-        numberOfOriginalFeatures = DataSizeRetreiver.num_terminals(csvPath);
+        this(aNumberOfArchiveFeatures, aNumberOfNewFeatures, Dataset.load(csvPath));
+    }
+
+    /**
+     * Training data matrix over a loaded data set; the columns of the
+     * original features and the targets are shared with the data set
+     * @param aNumberOfArchiveFeatures
+     * @param aNumberOfNewFeatures
+     * @param data
+     */
+    public EFMScaledData(int aNumberOfArchiveFeatures, int aNumberOfNewFeatures,Dataset data) {
+        numberOfFitnessCases = data.getNumberOfRows();
+        numberOfOriginalFeatures = data.getNumberOfFeatures();
         numberOfArchiveFeatures = aNumberOfArchiveFeatures;
         numberOfNewFeatures = aNumberOfNewFeatures;
         int totalNumberOfFeatures = numberOfOriginalFeatures + numberOfArchiveFeatures + numberOfNewFeatures;
-        dataMatrix = new double[numberOfFitnessCases][totalNumberOfFeatures];
-        featureStrings = new String[totalNumberOfFeatures];
+        dataMatrix = new double[totalNumberOfFeatures][];
+        for(int j=0;j<totalNumberOfFeatures;j++){
+            dataMatrix[j] = j<numberOfOriginalFeatures ? data.getColumn(j) : new double[numberOfFitnessCases];
+        }
+        expressionPool = new ExpressionPool();
+        featureNodes = new int[totalNumberOfFeatures];
         for(int j=0;j<numberOfOriginalFeatures;j++){
-            featureStrings[j] = "X" + (j+1);
+            featureNodes[j] = expressionPool.variable(j);
         }
+        int placeholder = expressionPool.variable(-1);
+        deadFeatureNode = expressionPool.binary(PostfixProgram.MINUS, placeholder, placeholder);
         featureSizes = new int[totalNumberOfFeatures];
-        this.target = new double[numberOfFitnessCases];
-        target_min = null;
-        target_max = null;
-        readCSV(csvPath);
+        slotStates = new byte[totalNumberOfFeatures];
+        target = data.getTargetValues();
+        target_min = data.getTargetMin();
+        target_max = data.getTargetMax();
     }
     
     /**
@@ -100,34 +166,22 @@ public class EFMScaledData {
      * @throws IOException
      */
     public EFMScaledData(String csvPath) throws IOException {
-        numberOfFitnessCases = DataSizeRetreiver.num_fitness_cases(csvPath);
-        numberOfOriginalFeatures = DataSizeRetreiver.num_terminals(csvPath);
-        dataMatrix = new double[numberOfFitnessCases][numberOfOriginalFeatures];
-        this.target = new double[numberOfFitnessCases];
-        target_min = null;
-        target_max = null;
-        readCSV(csvPath);
+        this(Dataset.load(csvPath));
     }
 
-    /*
-    * read the csv containing the training data
-    * the last column contains the target value
-    */
-    private void readCSV(String csvfile) throws FileNotFoundException, IOException {
-        //BufferedReader f = new BufferedReader(new FileReader(csvfile));
-        BufferedReader f = new BufferedReader(new InputStreamReader(new FileInputStream(csvfile), Charset.defaultCharset()));
-        String[] token;
-        int fitnessCaseIndex = 0;
-        while (f.ready() && fitnessCaseIndex < numberOfFitnessCases) {
-            token = f.readLine().split(",");
-            for (int i = 0; i < token.length - 1; i++) {
-                this.dataMatrix[fitnessCaseIndex][i] = Double.valueOf(token[i]);
-            }
-            double val = Double.valueOf(token[token.length - 1]);
-            addTargetValue(val, fitnessCaseIndex);
-            fitnessCaseIndex++;
-        }
-        f.close();
+    /**
+     * Data matrix over a loaded data set, without room for composed features
+     * @param data
+     */
+    public EFMScaledData(Dataset data) {
+        numberOfFitnessCases = data.getNumberOfRows();
+        numberOfOriginalFeatures = data.getNumberOfFeatures();
+        dataMatrix = data.getColumns();
+        expressionPool = null;
+        deadFeatureNode = -1;
+        target = data.getTargetValues();
+        target_min = data.getTargetMin();
+        target_max = data.getTargetMax();
     }
         
     /**
@@ -137,10 +191,8 @@ public class EFMScaledData {
     public void fillInitialArchiveandNewFeatures(Random r){
         for(int j=numberOfOriginalFeatures;j<numberOfOriginalFeatures+numberOfArchiveFeatures+numberOfNewFeatures;j++){
             int indexOriginal = r.nextInt(numberOfOriginalFeatures);
-            featureStrings[j] = featureStrings[indexOriginal];
-            for(int i=0;i<numberOfFitnessCases;i++){
-                dataMatrix[i][j] = dataMatrix[i][indexOriginal];
-            }
+            featureNodes[j] = featureNodes[indexOriginal];
+            System.arraycopy(dataMatrix[indexOriginal], 0, dataMatrix[j], 0, numberOfFitnessCases);
         }
         for(int j=0;j<numberOfOriginalFeatures+numberOfArchiveFeatures+numberOfNewFeatures;j++){
             featureSizes[j] = 1;
@@ -148,21 +200,51 @@ public class EFMScaledData {
     }
     
     /**
-     * add a target value
-     * @param val
-     * @param index
-     */
-    protected void addTargetValue(double val,int index) {
-        this.target[index] = val;
-        if (target_min == null || val < target_min) {
-            target_min = val;
+     * composition of a new feature by applying an operator to one or two
+     * existing features. The feature is interned in the expression pool
+     * first, and its values are only computed by the column kernel of the
+     * operator if no other live feature has the same expression.
+     * @param operator
+     * @param indexNewFeature
+     * @param indexParent1
+     * @param indexParent2 -1 for unary operators
+     * @return COMPOSED, or the reason why the new feature was rejected:
+     *         REJECTED_DEAD_PARENT, REJECTED_DUPLICATE, REJECTED_INVALID or
+     *         REJECTED_CORRELATED
+     */
+    public byte compose(Operator operator,int indexNewFeature,int indexParent1,int indexParent2){
+        if(!startNewFeature(indexNewFeature,indexParent1,indexParent2)){
+            return REJECTED_DEAD_PARENT;
         }
-        if (target_max == null || val > target_max) {
-            target_max = val;
+        if(operator.getArity() == 2){
+            featureNodes[indexNewFeature] = expressionPool.binary(operator.getOpcode(), featureNodes[indexParent1], featureNodes[indexParent2]);
+        }else{
+            featureNodes[indexNewFeature] = expressionPool.unary(operator.getOpcode(), featureNodes[indexParent1]);
+        }
+        if(isNewFeature(indexNewFeature)){
+            if(operator.getArity() == 2){
+                operator.apply(dataMatrix[indexParent1], dataMatrix[indexParent2], dataMatrix[indexNewFeature], numberOfFitnessCases);
+                featureSizes[indexNewFeature] = featureSizes[indexParent1] + featureSizes[indexParent2] + 1;
+            }else{
+                operator.apply(dataMatrix[indexParent1], dataMatrix[indexNewFeature], numberOfFitnessCases);
+                featureSizes[indexNewFeature] = featureSizes[indexParent1] + 1;
+            }
+            byte outcome = COMPOSED;
+            if(!hasFiniteValues(indexNewFeature)){
+                outcome = REJECTED_INVALID;
+            }else if(isCorrelatedToParents(indexNewFeature,indexParent1,indexParent2)){
+                outcome = REJECTED_CORRELATED;
+            }
+            if(outcome!=COMPOSED){
+                setFeatureToDead(indexNewFeature);
+            }
+            return outcome;
+        }else{
+            setFeatureToDead(indexNewFeature);
+            return REJECTED_DUPLICATE;
         }
     }
 
-        
     /**
      * composition of a new feature by computing the
      * multiplication of two existing features
@@ -171,19 +253,7 @@ public class EFMScaledData {
      * @param indexParent2
      */
     public void multiplication(int indexNewFeature,int indexParent1,int indexParent2){
-        featureStrings[indexNewFeature] = "(* " + featureStrings[indexParent1] + " " + featureStrings[indexParent2] + ")";
-        if(isNewFeature(indexNewFeature)){
-            for(int i=0;i<numberOfFitnessCases;i++){
-                dataMatrix[i][indexNewFeature] = dataMatrix[i][indexParent1] * dataMatrix[i][indexParent2];
-            }
-            featureSizes[indexNewFeature] = featureSizes[indexParent1] + featureSizes[indexParent2] + 1;
-            boolean valid = checkValidity(indexNewFeature,indexParent1,indexParent2);
-            if(!valid){
-                setFeatureToZero(indexNewFeature);
-            }
-        }else{
-            setFeatureToZero(indexNewFeature);
-        }
+        compose(Operator.MULTIPLY,indexNewFeature,indexParent1,indexParent2);
     }
     
     /**
@@ -194,19 +264,7 @@ public class EFMScaledData {
      * @param indexParent2
      */
     public void division(int indexNewFeature,int indexParent1,int indexParent2){
-        featureStrings[indexNewFeature] = "(mydivide " + featureStrings[indexParent1] + " " + featureStrings[indexParent2] + ")";
-        if(isNewFeature(indexNewFeature)){
-            for(int i=0;i<numberOfFitnessCases;i++){
-                dataMatrix[i][indexNewFeature] = dataMatrix[i][indexParent1] / dataMatrix[i][indexParent2];
-            }
-            featureSizes[indexNewFeature] = featureSizes[indexParent1] + featureSizes[indexParent2] + 1;
-            boolean valid = checkValidity(indexNewFeature,indexParent1,indexParent2);
-            if(!valid){
-                setFeatureToZero(indexNewFeature);
-            }
-        }else{
-            setFeatureToZero(indexNewFeature);
-        }
+        compose(Operator.DIVIDE,indexNewFeature,indexParent1,indexParent2);
     }
     
     /**
@@ -217,19 +275,7 @@ public class EFMScaledData {
      * @param indexParent2
      */
     public void sum(int indexNewFeature,int indexParent1,int indexParent2){
-        featureStrings[indexNewFeature] = "(+ " + featureStrings[indexParent1] + " " + featureStrings[indexParent2] + ")";
-        if(isNewFeature(indexNewFeature)){
-            for(int i=0;i<numberOfFitnessCases;i++){
-                dataMatrix[i][indexNewFeature] = dataMatrix[i][indexParent1] + dataMatrix[i][indexParent2];
-            }
-            featureSizes[indexNewFeature] = featureSizes[indexParent1] + featureSizes[indexParent2] + 1;
-            boolean valid = checkValidity(indexNewFeature,indexParent1,indexParent2);
-            if(!valid){
-                setFeatureToZero(indexNewFeature);
-            }
-        }else{
-            setFeatureToZero(indexNewFeature);
-        }            
+        compose(Operator.PLUS,indexNewFeature,indexParent1,indexParent2);
     }
     
     /**
@@ -240,19 +286,7 @@ public class EFMScaledData {
      * @param indexParent2
      */
     public void minus(int indexNewFeature,int indexParent1,int indexParent2){
-        featureStrings[indexNewFeature] = "(- " + featureStrings[indexParent1] + " " + featureStrings[indexParent2] + ")";
-        if(isNewFeature(indexNewFeature)){
-            for(int i=0;i<numberOfFitnessCases;i++){
-                dataMatrix[i][indexNewFeature] = dataMatrix[i][indexParent1] - dataMatrix[i][indexParent2];
-            }
-            featureSizes[indexNewFeature] = featureSizes[indexParent1] + featureSizes[indexParent2] + 1;
-            boolean valid = checkValidity(indexNewFeature,indexParent1,indexParent2);
-            if(!valid){
-                setFeatureToZero(indexNewFeature);
-            }
-        }else{
-            setFeatureToZero(indexNewFeature);
-        }
+        compose(Operator.MINUS,indexNewFeature,indexParent1,indexParent2);
     }
     
     /**
@@ -262,21 +296,9 @@ public class EFMScaledData {
      * @param indexParent1
      */
     public void log(int indexNewFeature,int indexParent1){
-        featureStrings[indexNewFeature] = "(mylog " + featureStrings[indexParent1] + ")";
-        if(isNewFeature(indexNewFeature)){
-            for(int i=0;i<numberOfFitnessCases;i++){
-                dataMatrix[i][indexNewFeature] = Math.log(dataMatrix[i][indexParent1]);
-            }
-            featureSizes[indexNewFeature] = featureSizes[indexParent1] + 1;
-            boolean valid = checkValidity(indexNewFeature,indexParent1,-1);
-            if(!valid){
-                setFeatureToZero(indexNewFeature);
-            }
-        }else{
-            setFeatureToZero(indexNewFeature);
-        }
+        compose(Operator.LOG,indexNewFeature,indexParent1,-1);
     }
-        
+    
     /**
      * composition of a new feature by computing the
      * exp of an existing feature
@@ -284,19 +306,7 @@ public class EFMScaledData {
      * @param indexParent1
      */
     public void exp(int indexNewFeature,int indexParent1){
-        featureStrings[indexNewFeature] = "(exp " + featureStrings[indexParent1] + ")";
-        if(isNewFeature(indexNewFeature)){
-            for(int i=0;i<numberOfFitnessCases;i++){
-                dataMatrix[i][indexNewFeature] = Math.exp(dataMatrix[i][indexParent1]);
-            }
-            featureSizes[indexNewFeature] = featureSizes[indexParent1] + 1;
-            boolean valid = checkValidity(indexNewFeature,indexParent1,-1);
-            if(!valid){
-                setFeatureToZero(indexNewFeature);
-            }
-        }else{
-            setFeatureToZero(indexNewFeature);
-        }
+        compose(Operator.EXP,indexNewFeature,indexParent1,-1);
     }
     
     /**
@@ -306,19 +316,7 @@ public class EFMScaledData {
      * @param indexParent1
      */
     public void sin(int indexNewFeature,int indexParent1){
-        featureStrings[indexNewFeature] = "(sin " + featureStrings[indexParent1] + ")";
-        if(isNewFeature(indexNewFeature)){
-            for(int i=0;i<numberOfFitnessCases;i++){
-                dataMatrix[i][indexNewFeature] = Math.sin(dataMatrix[i][indexParent1]);
-            }
-            featureSizes[indexNewFeature] = featureSizes[indexParent1] + 1;
-            boolean valid = checkValidity(indexNewFeature,indexParent1,-1);
-            if(!valid){
-                setFeatureToZero(indexNewFeature);
-            }
-        }else{
-            setFeatureToZero(indexNewFeature);
-        }
+        compose(Operator.SIN,indexNewFeature,indexParent1,-1);
     }
     
     /**
@@ -328,41 +326,17 @@ public class EFMScaledData {
      * @param indexParent1
      */
     public void cos(int indexNewFeature,int indexParent1){
-        featureStrings[indexNewFeature] = "(cos " + featureStrings[indexParent1] + ")";
-        if(isNewFeature(indexNewFeature)){
-            for(int i=0;i<numberOfFitnessCases;i++){
-                dataMatrix[i][indexNewFeature] = Math.cos(dataMatrix[i][indexParent1]);
-            }
-            featureSizes[indexNewFeature] = featureSizes[indexParent1] + 1;
-            boolean valid = checkValidity(indexNewFeature,indexParent1,-1);
-            if(!valid){
-                setFeatureToZero(indexNewFeature);
-            }
-        }else{
-            setFeatureToZero(indexNewFeature);
-        }
+        compose(Operator.COS,indexNewFeature,indexParent1,-1);
     }
-        
+    
     /**
      * composition of a new feature by computing the
-     * square root of an existing feature
+     * sqrt of an existing feature
      * @param indexNewFeature
      * @param indexParent1
      */
     public void sqrt(int indexNewFeature,int indexParent1){
-        featureStrings[indexNewFeature] = "(sqrt " + featureStrings[indexParent1] + ")";
-        if(isNewFeature(indexNewFeature)){
-            for(int i=0;i<numberOfFitnessCases;i++){
-                dataMatrix[i][indexNewFeature] = Math.sqrt(dataMatrix[i][indexParent1]);
-            }
-            featureSizes[indexNewFeature] = featureSizes[indexParent1] + 1;
-            boolean valid = checkValidity(indexNewFeature,indexParent1,-1);
-            if(!valid){
-                setFeatureToZero(indexNewFeature);
-            }
-        }else{
-            setFeatureToZero(indexNewFeature);
-        }
+        compose(Operator.SQRT,indexNewFeature,indexParent1,-1);
     }
     
     /**
@@ -372,19 +346,7 @@ public class EFMScaledData {
      * @param indexParent1
      */
     public void square(int indexNewFeature,int indexParent1){
-        featureStrings[indexNewFeature] = "(square " + featureStrings[indexParent1] + ")";
-        if(isNewFeature(indexNewFeature)){
-            for(int i=0;i<numberOfFitnessCases;i++){
-                dataMatrix[i][indexNewFeature] = Math.pow(dataMatrix[i][indexParent1],2);
-            }
-            featureSizes[indexNewFeature] = featureSizes[indexParent1] + 1;
-            boolean valid = checkValidity(indexNewFeature,indexParent1,-1);
-            if(!valid){
-                setFeatureToZero(indexNewFeature);
-            }
-        }else{
-            setFeatureToZero(indexNewFeature);
-        }
+        compose(Operator.SQUARE,indexNewFeature,indexParent1,-1);
     }
     
     /**
@@ -394,31 +356,38 @@ public class EFMScaledData {
      * @param indexParent1
      */
     public void cube(int indexNewFeature,int indexParent1){
-        featureStrings[indexNewFeature] = "(cube " + featureStrings[indexParent1] + ")";
-        if(isNewFeature(indexNewFeature)){
-            for(int i=0;i<numberOfFitnessCases;i++){
-                dataMatrix[i][indexNewFeature] = Math.pow(dataMatrix[i][indexParent1],3);
-            }
-            featureSizes[indexNewFeature] = featureSizes[indexParent1] + 1;
-            boolean valid = checkValidity(indexNewFeature,indexParent1,-1);
-            if(!valid){
-                setFeatureToZero(indexNewFeature);
-            }
-        }else{
-            setFeatureToZero(indexNewFeature);
+        compose(Operator.CUBE,indexNewFeature,indexParent1,-1);
+    }
+    
+    /**
+     * Prepare a slot to receive a new feature. A feature composed from a
+     * rejected (dead) parent is always rejected: its values would be constant
+     * or a copy of the other parent, so it is marked dead without computing it.
+     * @param indexNewFeature
+     * @param indexParent1
+     * @param indexParent2 -1 for unary operators
+     * @return whether the new feature must be computed
+     */
+    private boolean startNewFeature(int indexNewFeature,int indexParent1,int indexParent2){
+        if(isDeadFeature(indexParent1) || (indexParent2!=-1 && isDeadFeature(indexParent2))){
+            setFeatureToDead(indexNewFeature);
+            return false;
         }
+        slotStates[indexNewFeature] = SLOT_LIVE;
+        return true;
     }
-
+    
     /**
-     * check whether the index corresponds to a new feature
+     * check whether the index corresponds to a new feature; expressions are
+     * interned, so equal expressions have equal nodes
      * @param indexNewFeature
      * @return
      */
     public boolean isNewFeature(int indexNewFeature){
         boolean isNew = true;
-        String newFeatureString = featureStrings[indexNewFeature];
+        int newFeatureNode = featureNodes[indexNewFeature];
         for(int i = numberOfOriginalFeatures; i<indexNewFeature;i++){
-            if(featureStrings[i].equals(newFeatureString)){
+            if(featureNodes[i]==newFeatureNode){
                 return false;
             }
         }
@@ -431,66 +400,114 @@ public class EFMScaledData {
      * @param indexNewFeature
      */
     public void copyFeature(int indexParent, int indexNewFeature){
-        for(int i=0;i<numberOfFitnessCases;i++){
-            dataMatrix[i][indexNewFeature]=dataMatrix[i][indexParent];
-        }
-        featureStrings[indexNewFeature] = featureStrings[indexParent];
+        System.arraycopy(dataMatrix[indexParent], 0, dataMatrix[indexNewFeature], 0, numberOfFitnessCases);
+        featureNodes[indexNewFeature] = featureNodes[indexParent];
         featureSizes[indexNewFeature] = featureSizes[indexParent];
+        slotStates[indexNewFeature] = slotStates[indexParent];
     }
     
     /**
-     *
+     * reject the feature of a slot. The values of the slot are not cleared:
+     * dead slots are skipped when the fits are assembled and stand for the
+     * zero feature (- X0 X0)
      * @param indexNewFeature
      */
-    public void setFeatureToZero(int indexNewFeature){
-        for(int i=0;i<numberOfFitnessCases;i++){
-            dataMatrix[i][indexNewFeature]=0;
-        }
-        featureStrings[indexNewFeature] = "(- X0 X0)";
+    public void setFeatureToDead(int indexNewFeature){
+        featureNodes[indexNewFeature] = deadFeatureNode;
         featureSizes[indexNewFeature] = 3;
+        slotStates[indexNewFeature] = SLOT_DEAD;
+    }
+    
+    /**
+     * mark the features computed so far as kept from a previous generation,
+     * to be called before composing the features of a new generation
+     */
+    public void markFeaturesUnchanged(){
+        for(int j=0;j<slotStates.length;j++){
+            if(slotStates[j]==SLOT_LIVE){
+                slotStates[j] = SLOT_UNCHANGED;
+            }
+        }
+    }
+    
+    /**
+     * @param index
+     * @return the state of the slot: SLOT_LIVE, SLOT_UNCHANGED or SLOT_DEAD
+     */
+    public byte getSlotState(int index){
+        return slotStates[index];
+    }
+    
+    /**
+     * @param index
+     * @return whether the feature of the slot was rejected
+     */
+    public boolean isDeadFeature(int index){
+        return slotStates[index]==SLOT_DEAD;
     }
     
     /**
-     *
+     * check that a new feature has finite values and is not too correlated
+     * with its parents
      * @param indexF1
      * @param indexP1
-     * @param indexP2
-     * @return
+     * @param indexP2 -1 for unary operators
+     * @return whether the new feature can be kept
      */
     public boolean checkValidity(int indexF1,int indexP1,int indexP2){
-        boolean valid =true;
+        return hasFiniteValues(indexF1) && !isCorrelatedToParents(indexF1,indexP1,indexP2);
+    }
+    
+    /*
+    * whether no value of a feature is NaN or infinite once cast to float
+    */
+    private boolean hasFiniteValues(int indexF1){
         for(int i=0;i<numberOfFitnessCases;i++){
-            float fAux = (float)dataMatrix[i][indexF1];
+            float fAux = (float)dataMatrix[indexF1][i];
             if(Float.isInfinite(fAux) || Float.isNaN(fAux)){
                 return false;
             }
         }
+        return true;
+    }
+    
+    /*
+    * whether the correlation of a feature with one of its parents reaches
+    * the threshold; the second parent is only checked if the first one is
+    * below it
+    */
+    private boolean isCorrelatedToParents(int indexF1,int indexP1,int indexP2){
         double pcoeffP1 = computeCorrelation(indexF1,indexP1);
         if(pcoeffP1<Math.abs(CORR_THRESHOLD)){
             if(indexP2!=-1) {
                 double pcoeffP2 = computeCorrelation(indexF1,indexP2);
                 if(pcoeffP2>=Math.abs(CORR_THRESHOLD)) {
-                    valid = false;
+                    return true;
                 }
             }
-        }else{
-            valid = false;
+            return false;
         }
-        return valid;
+        return true;
     }
     
-    private double computeCorrelation(int index1, int index2){
+    /**
+     * Pearson correlation coefficient of two features
+     * @param index1
+     * @param index2
+     * @return the correlation, NaN if a feature is constant
+     */
+    public double computeCorrelation(int index1, int index2){
         double sumX = 0;
         double sumY = 0;
         double sumX2 = 0;
         double sumY2 = 0;
         double sumXY = 0;
         for (int i=0;i<numberOfFitnessCases;i++){
-            sumX += dataMatrix[i][index1];
-            sumY += dataMatrix[i][index2];
-            sumX2 += Math.pow(dataMatrix[i][index1],2);
-            sumY2 += Math.pow(dataMatrix[i][index2],2);
-            sumXY += (dataMatrix[i][index1] * dataMatrix[i][index2]);
+            sumX += dataMatrix[index1][i];
+            sumY += dataMatrix[index2][i];
+            sumX2 += Math.pow(dataMatrix[index1][i],2);
+            sumY2 += Math.pow(dataMatrix[index2][i],2);
+            sumXY += (dataMatrix[index1][i] * dataMatrix[index2][i]);
         }
         double numerator = (numberOfFitnessCases * sumXY) - (sumX*sumY);
         double denominatorLeft = Math.sqrt((numberOfFitnessCases*sumX2) - Math.pow(sumX, 2));
@@ -501,18 +518,18 @@ public class EFMScaledData {
     }
     
     /**
-     * @return the data matrix
+     * @return the data matrix, stored by columns (one array per feature)
      */
-    public double[][] getInputValues(){
+    public double[][] getColumns(){
         return this.dataMatrix;
     }
     
     /**
-     * return a row of the data matrix
+     * return a column of the data matrix
      * @param index
-     * @return
+     * @return the values of the feature for all the exemplars
      */
-    public double[] getRow(int index){
+    public double[] getColumn(int index){
         return dataMatrix[index];
     }
 
@@ -573,12 +590,28 @@ public class EFMScaledData {
     }
 
     /**
-     * return the string representation of a given feature
+     * return the string representation of a given feature, rendered from
+     * its expression
      * @param index
      * @return
      */
     public String getFeatureString(int index){
-        return featureStrings[index];
+        return expressionPool.toPrefixString(featureNodes[index]);
+    }
+
+    /**
+     * @param index
+     * @return the node of the expression of a given feature
+     */
+    public int getFeatureNode(int index){
+        return featureNodes[index];
+    }
+
+    /**
+     * @return the pool holding the expressions of the features
+     */
+    public ExpressionPool getExpressionPool(){
+        return expressionPool;
     }
 
     /**
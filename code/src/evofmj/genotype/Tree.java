@@ -22,6 +22,7 @@ package evofmj.genotype;
 
 import evofmj.efm.GPException;
 import evofmj.math.Function;
+import evofmj.math.PostfixProgram;
 
 /**
  * Class which represents the genotype of an individual as a rooted tree. The
@@ -153,6 +154,24 @@ public class Tree extends Genotype {
         return null;
     }
 
+    /**
+     * Compile this tree into a flat postfix program, to be evaluated
+     * repeatedly without rebuilding {@link Function} objects.
+     * 
+     * @return
+     * @throws GPException if a node is not a known function or variable
+     * @see PostfixProgram
+     */
+    public PostfixProgram compile() throws GPException {
+        TreeNode r = getRoot();
+        int size = r.getSubtreeSize();
+        int[] opcodes = new int[size];
+        int[] operands = new int[size];
+        double[] constants = new double[size];
+        r.compile(opcodes, operands, constants, 0);
+        return new PostfixProgram(opcodes, operands, constants);
+    }
+
     /**
      *
      * A memorized method which computes the complexity of an individual
@@ -19,6 +19,8 @@
  */
 
 package evofmj.genotype;
+import evofmj.math.PostfixProgram;
+import java.util.ArrayList;
 import java.util.StringTokenizer;
 
 /**
@@ -57,6 +59,35 @@ public class TreeGenerator {
         return new Tree(holder);
     }
 
+    /**
+     * Generate a tree from its compiled postfix form, without parsing text.
+     * 
+     * @param program postfix instructions of the tree
+     * @return new tree computing the same expression as the program
+     */
+    public static Tree generateTree(PostfixProgram program) {
+        ArrayList<TreeNode> stack = new ArrayList<TreeNode>();
+        for (int pc = 0; pc < program.size(); pc++) {
+            int opcode = program.getOpcode(pc);
+            TreeNode node = new TreeNode(null, program.getLabel(pc));
+            int arity = PostfixProgram.getArity(opcode);
+            for (int i = stack.size() - arity; i < stack.size(); i++) {
+                TreeNode child = stack.get(i);
+                child.parent = node;
+                node.addChild(child);
+            }
+            for (int i = 0; i < arity; i++) {
+                stack.remove(stack.size() - 1);
+            }
+            stack.add(node);
+        }
+        TreeNode holder = new TreeNode(null, "holder");
+        TreeNode root = stack.get(0);
+        root.parent = holder;
+        holder.addChild(root);
+        return new Tree(holder);
+    }
+
     /**
      * parse a String and add the parsed functions and variables to the tree
      */    
@@ -20,11 +20,12 @@ package evofmj.genotype;
 
 
 import java.io.Serializable;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
+import evofmj.math.Const;
 import evofmj.math.Function;
+import evofmj.math.Operator;
+import evofmj.math.PostfixProgram;
+import evofmj.math.Var;
 import evofmj.efm.GPException;
 
 /**
@@ -119,29 +120,22 @@ public class TreeNode implements Serializable {
 	}
 
 	/**
-	 * Generate (prefix) c-expression
+	 * Generate (prefix) S-expression, operators being written with the
+	 * canonical label registered in {@link Operator}
 	 * 
 	 * @return tree string
 	 */
 	public String toStringAsPrefix() {
-            try {
-                Class<? extends Function> c = Function.getClassFromLabel(label);
-                Method method = c.getMethod("getPrefixFormatString", new Class<?>[] {});
-                String prefixFormatString = (String) method.invoke(null);
-                if (children.isEmpty()) { // this is a terminal (const or var)
-                        String aux = String.format(prefixFormatString, label);
-                        return aux;
-                }
-                String[] childStrings = new String[children.size()];
-                for (int i = 0; i < children.size(); i++) {
-                        childStrings[i] = children.get(i).toStringAsPrefix();
-                }
-                String retval = String.format(prefixFormatString, ((Object[]) childStrings));
-                return retval;
-            } catch (    SecurityException | NoSuchMethodException | IllegalArgumentException | IllegalAccessException | InvocationTargetException e) {
-                System.err.println(String.format("Error in TreeNode.toStringAsPrefix()"));
-            }
-            return null;
+		if (children.isEmpty()) { // this is a terminal (const or var)
+			return label;
+		}
+		Operator operator = Operator.fromLabel(label);
+		StringBuilder sb = new StringBuilder("(");
+		sb.append(operator != null ? operator.getLabel() : label);
+		for (TreeNode child : children) {
+			sb.append(' ').append(child.toStringAsPrefix());
+		}
+		return sb.append(')').toString();
 	}
     
 	/**
@@ -283,25 +277,51 @@ public class TreeNode implements Serializable {
 	 * @see Function
 	 */
 	public Function generate() throws GPException {
-		int arity = Function.getArityFromLabel(label);
-		Constructor<? extends Function> f;
-		try {
-			f = Function.getConstructorFromLabel(label);
-			if (arity == 0) {
-				return f.newInstance(label);
-			}
+		int opcode = PostfixProgram.getOpcodeFromLabel(label);
+		if (opcode == PostfixProgram.VAR) {
+			return new Var(label);
+		} else if (opcode == PostfixProgram.CONST) {
+			return new Const(label);
+		}
+		Operator operator = Operator.fromOpcode(opcode);
+		if (operator != null && operator.getArity() == children.size()) {
 			Function c1 = children.get(0).generate();
-			if (arity == 1) {
-				return f.newInstance(c1);
-			} else if (arity == 2) {
-				return f.newInstance(c1, children.get(1).generate());
-			}
-		} catch (    SecurityException | NoSuchMethodException | IllegalArgumentException | InstantiationException | IllegalAccessException | InvocationTargetException e) {
-			// TODO Auto-generated catch block
+			Function c2 = operator.getArity() == 2 ? children.get(1).generate() : null;
+			return operator.createFunction(c1, c2);
 		}
 		throw new GPException("can't create function for node " + this.label);
 	}
 
+	/**
+	 * Write the postfix encoding of the subtree rooted at this node: the
+	 * instructions of the children, in order, followed by the instruction of
+	 * this node.
+	 * 
+	 * @param opcodes instructions of the program
+	 * @param operands variable indices of the program
+	 * @param constants constant values of the program
+	 * @param pc position of the first instruction to write
+	 * @return position following the last written instruction
+	 * @throws GPException 
+	 * @see PostfixProgram
+	 */
+	public int compile(int[] opcodes, int[] operands, double[] constants, int pc) throws GPException {
+		int opcode = PostfixProgram.getOpcodeFromLabel(label);
+		if (opcode == -1 || PostfixProgram.getArity(opcode) != children.size()) {
+			throw new GPException("can't compile node " + this.label);
+		}
+		for (TreeNode child : children) {
+			pc = child.compile(opcodes, operands, constants, pc);
+		}
+		opcodes[pc] = opcode;
+		if (opcode == PostfixProgram.VAR) {
+			operands[pc] = Var.getIndexFromLabel(label);
+		} else if (opcode == PostfixProgram.CONST) {
+			constants[pc] = Double.parseDouble(label);
+		}
+		return pc + 1;
+	}
+
 	/**
 	 * Reset all cached values for the tree containing this node. Resetting one
 	 * TreeNode is sufficient to reset all cached values in the entire Tree.
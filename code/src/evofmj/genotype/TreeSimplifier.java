@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.genotype;
+
+import evofmj.efm.GPException;
+import evofmj.math.Const;
+import evofmj.math.PostfixProgram;
+import java.util.ArrayList;
+
+/**
+ * Algebraic simplification of expression trees, applied to the features of
+ * a model before it is deployed. Subtrees are simplified bottom-up:
+ * 
+ * - operators applied to constants only are folded into a constant, using
+ *   the protected semantics of evofmj.math; folds that give NaN or infinity
+ *   are left unevaluated,
+ * - (- a a) becomes 0 and (mydivide a a) becomes 1, where a is any subtree:
+ *   the protected division returns 1 for a denominator close to zero,
+ * - (+ a 0), (+ 0 a), (- a 0), (* a 1), (* 1 a) and (mydivide a 1) become a,
+ * - (* a 0) and (* 0 a) become 0,
+ * - (sqrt (square a)) becomes (abs a), and abs of a non-negative operator
+ *   (abs, sqrt, square, quart, exp) is dropped.
+ * 
+ * The rewrites assume that the rewritten subtrees evaluate to finite values,
+ * as the NaN and infinite values of a feature are mapped to 0 when scoring.
+ * Operator labels are normalized to the labels written by RegressionEFM, so
+ * equal expressions have equal prefix strings.
+ * 
+ * @author Ignacio Arnaldo
+ */
+public final class TreeSimplifier {
+
+    private TreeSimplifier() {
+    }
+
+    /**
+     * @param tree
+     * @return a simplified copy of the tree
+     * @throws GPException if the tree contains an unknown function or variable
+     */
+    public static Tree simplify(Tree tree) throws GPException {
+        TreeNode holder = new TreeNode(null, "holder");
+        TreeNode root = simplify(tree.getRoot());
+        root.parent = holder;
+        holder.addChild(root);
+        return new Tree(holder);
+    }
+
+    /**
+     * @param tree
+     * @return whether the tree is a single constant
+     */
+    public static boolean isConstant(Tree tree) {
+        return isConstant(tree.getRoot());
+    }
+
+    /**
+     * @param tree a constant tree
+     * @return the value of the constant
+     */
+    public static double getConstantValue(Tree tree) {
+        return Double.parseDouble(tree.getRoot().label);
+    }
+
+    /*
+    * simplified copy of the subtree rooted at a node
+    */
+    private static TreeNode simplify(TreeNode node) throws GPException {
+        int opcode = PostfixProgram.getOpcodeFromLabel(node.label);
+        if (opcode == -1 || PostfixProgram.getArity(opcode) != node.children.size()) {
+            throw new GPException("can't simplify node " + node.label);
+        }
+        if (opcode == PostfixProgram.VAR) {
+            return new TreeNode(null, node.label);
+        }
+        if (opcode == PostfixProgram.CONST) {
+            return constant(Double.parseDouble(node.label));
+        }
+        ArrayList<TreeNode> children = new ArrayList<TreeNode>();
+        boolean constantArguments = true;
+        for (TreeNode child : node.children) {
+            TreeNode simplifiedChild = simplify(child);
+            children.add(simplifiedChild);
+            constantArguments &= isConstant(simplifiedChild);
+        }
+        if (constantArguments) {
+            double value = fold(opcode, children);
+            if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+                return constant(value);
+            }
+        }
+        TreeNode a = children.get(0);
+        if (children.size() == 2) {
+            TreeNode b = children.get(1);
+            boolean sameArguments = a.toStringAsTree().equals(b.toStringAsTree());
+            switch (opcode) {
+                case PostfixProgram.MINUS:
+                    if (sameArguments) return constant(0);
+                    if (isConstant(b, 0)) return a;
+                    break;
+                case PostfixProgram.DIVIDE:
+                    if (sameArguments) return constant(1);
+                    if (isConstant(b, 1)) return a;
+                    break;
+                case PostfixProgram.PLUS:
+                    if (isConstant(a, 0)) return b;
+                    if (isConstant(b, 0)) return a;
+                    break;
+                case PostfixProgram.MULTIPLY:
+                    if (isConstant(a, 0) || isConstant(b, 0)) return constant(0);
+                    if (isConstant(a, 1)) return b;
+                    if (isConstant(b, 1)) return a;
+                    break;
+                default:
+                    break;
+            }
+        } else {
+            int argumentOpcode = PostfixProgram.getOpcodeFromLabel(a.label);
+            if (opcode == PostfixProgram.SQRT && argumentOpcode == PostfixProgram.SQUARE) {
+                return operator(PostfixProgram.ABS, a.children);
+            }
+            if (opcode == PostfixProgram.ABS && isNonNegative(argumentOpcode)) {
+                return a;
+            }
+        }
+        return operator(opcode, children);
+    }
+
+    /*
+    * operators whose value is never negative
+    */
+    private static boolean isNonNegative(int opcode) {
+        return opcode == PostfixProgram.ABS || opcode == PostfixProgram.SQRT || opcode == PostfixProgram.SQUARE
+                || opcode == PostfixProgram.QUART || opcode == PostfixProgram.EXP;
+    }
+
+    /*
+    * evaluate an operator on constant arguments
+    */
+    private static double fold(int opcode, ArrayList<TreeNode> children) {
+        int size = children.size() + 1;
+        int[] opcodes = new int[size];
+        double[] constants = new double[size];
+        for (int i = 0; i < children.size(); i++) {
+            opcodes[i] = PostfixProgram.CONST;
+            constants[i] = Double.parseDouble(children.get(i).label);
+        }
+        opcodes[size - 1] = opcode;
+        PostfixProgram program = new PostfixProgram(opcodes, new int[size], constants);
+        return program.eval(new double[0], new double[program.getMaxStackDepth()]);
+    }
+
+    private static boolean isConstant(TreeNode node) {
+        return node.children.isEmpty() && Const.isConstantLabel(node.label);
+    }
+
+    private static boolean isConstant(TreeNode node, double value) {
+        return isConstant(node) && Double.parseDouble(node.label) == value;
+    }
+
+    private static TreeNode constant(double value) {
+        return new TreeNode(null, Double.toString(value));
+    }
+
+    private static TreeNode operator(int opcode, ArrayList<TreeNode> children) {
+        TreeNode node = new TreeNode(null, PostfixProgram.getOperatorLabel(opcode));
+        for (TreeNode child : children) {
+            child.parent = node;
+            node.addChild(child);
+        }
+        return node;
+    }
+}
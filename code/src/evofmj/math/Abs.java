@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.math;
+
+import java.util.List;
+
+/**
+ *
+ * @author nacho
+ */
+public class Abs extends OneArgFunction {
+
+    /**
+     *
+     * @param a1
+     */
+    public Abs(Function a1) {
+        super(a1);
+    }
+
+    @Override
+    public Double eval(List<Double> t) {
+        return apply(arg.eval(t));
+    }
+
+    @Override
+    public double eval(double[] row) {
+        return apply(arg.eval(row));
+    }
+
+    @Override
+    public void eval(double[][] columns, double[] out, int from, int to) {
+        arg.eval(columns, out, from, to);
+        ColumnKernels.abs(out, out, to - from);
+    }
+
+    /**
+     * absolute value
+     * @param a
+     * @return
+     */
+    public static double apply(double a) {
+        return Math.abs(a);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public static String getInfixFormatString() {
+        //return "abs(%s)";
+        return "(abs %s)";
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.math;
+
+/**
+ * Whole-column versions of the operators of evofmj.math. Each kernel applies
+ * the scalar apply method of the corresponding {@link Function} class to the
+ * first length entries of its argument columns, in a single loop over
+ * primitive arrays that the JIT can unroll and vectorize. The kernels are
+ * shared by the composition of features during training and by the batch
+ * evaluation of models, so both see exactly the same operator semantics.
+ * The output column may be one of the arguments.
+ *
+ * @author Ignacio Arnaldo
+ */
+public final class ColumnKernels {
+
+    private ColumnKernels() {
+    }
+
+    /**
+     * sum, out[i] = Plus.apply(a[i], b[i])
+     * @param a first argument
+     * @param b second argument
+     * @param out result
+     * @param length number of entries
+     */
+    public static void plus(double[] a, double[] b, double[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = Plus.apply(a[i], b[i]);
+        }
+    }
+
+    /**
+     * difference, out[i] = Minus.apply(a[i], b[i])
+     * @param a first argument
+     * @param b second argument
+     * @param out result
+     * @param length number of entries
+     */
+    public static void minus(double[] a, double[] b, double[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = Minus.apply(a[i], b[i]);
+        }
+    }
+
+    /**
+     * product, out[i] = Multiply.apply(a[i], b[i])
+     * @param a first argument
+     * @param b second argument
+     * @param out result
+     * @param length number of entries
+     */
+    public static void multiply(double[] a, double[] b, double[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = Multiply.apply(a[i], b[i]);
+        }
+    }
+
+    /**
+     * protected division, out[i] = Divide.apply(a[i], b[i])
+     * @param a first argument
+     * @param b second argument
+     * @param out result
+     * @param length number of entries
+     */
+    public static void divide(double[] a, double[] b, double[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = Divide.apply(a[i], b[i]);
+        }
+    }
+
+    /**
+     * sine, out[i] = Sin.apply(a[i])
+     * @param a argument
+     * @param out result
+     * @param length number of entries
+     */
+    public static void sin(double[] a, double[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = Sin.apply(a[i]);
+        }
+    }
+
+    /**
+     * cosine, out[i] = Cos.apply(a[i])
+     * @param a argument
+     * @param out result
+     * @param length number of entries
+     */
+    public static void cos(double[] a, double[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = Cos.apply(a[i]);
+        }
+    }
+
+    /**
+     * protected logarithm, out[i] = Log.apply(a[i])
+     * @param a argument
+     * @param out result
+     * @param length number of entries
+     */
+    public static void log(double[] a, double[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = Log.apply(a[i]);
+        }
+    }
+
+    /**
+     * exponential, out[i] = Exp.apply(a[i])
+     * @param a argument
+     * @param out result
+     * @param length number of entries
+     */
+    public static void exp(double[] a, double[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = Exp.apply(a[i]);
+        }
+    }
+
+    /**
+     * protected square root, out[i] = Sqrt.apply(a[i])
+     * @param a argument
+     * @param out result
+     * @param length number of entries
+     */
+    public static void sqrt(double[] a, double[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = Sqrt.apply(a[i]);
+        }
+    }
+
+    /**
+     * square, out[i] = Square.apply(a[i])
+     * @param a argument
+     * @param out result
+     * @param length number of entries
+     */
+    public static void square(double[] a, double[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = Square.apply(a[i]);
+        }
+    }
+
+    /**
+     * cube, out[i] = Cube.apply(a[i])
+     * @param a argument
+     * @param out result
+     * @param length number of entries
+     */
+    public static void cube(double[] a, double[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = Cube.apply(a[i]);
+        }
+    }
+
+    /**
+     * fourth power, out[i] = Quart.apply(a[i])
+     * @param a argument
+     * @param out result
+     * @param length number of entries
+     */
+    public static void quart(double[] a, double[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = Quart.apply(a[i]);
+        }
+    }
+
+    /**
+     * absolute value, out[i] = Abs.apply(a[i])
+     * @param a argument
+     * @param out result
+     * @param length number of entries
+     */
+    public static void abs(double[] a, double[] out, int length) {
+        for (int i = 0; i < length; i++) {
+            out[i] = Abs.apply(a[i]);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.math;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A numeric constant. Constants do not appear in evolved features; they are
+ * introduced when simplifying saved models, and are labeled with their
+ * decimal representation.
+ *
+ * @author Ignacio Arnaldo
+ */
+public class Const extends ZeroArgFunction {
+
+    private final double value;
+
+    /**
+     *
+     * @param label decimal representation of the constant
+     */
+    public Const(String label) {
+        super(label);
+        value = Double.parseDouble(label);
+    }
+
+    /**
+     * @param label
+     * @return whether the label is the decimal representation of a number
+     */
+    public static boolean isConstantLabel(String label) {
+        if (label.isEmpty()) {
+            return false;
+        }
+        char c = label.charAt(0);
+        if (c == '-' || c == '+') {
+            if (label.length() == 1) {
+                return false;
+            }
+            c = label.charAt(1);
+        }
+        return Character.isDigit(c) || c == '.';
+    }
+
+    @Override
+    public Double eval(List<Double> t) {
+        return value;
+    }
+
+    @Override
+    public double eval(double[] row) {
+        return value;
+    }
+
+    @Override
+    public void eval(double[][] columns, double[] out, int from, int to) {
+        Arrays.fill(out, 0, to - from, value);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public static String getInfixFormatString() {
+        return "%s";
+    }
+}
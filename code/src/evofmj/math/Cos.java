@@ -35,7 +35,27 @@ public class Cos extends OneArgFunction {
 
     @Override
     public Double eval(List<Double> t) {
-        return Math.cos(arg.eval(t));
+        return apply(arg.eval(t));
+    }
+
+    @Override
+    public double eval(double[] row) {
+        return apply(arg.eval(row));
+    }
+
+    @Override
+    public void eval(double[][] columns, double[] out, int from, int to) {
+        arg.eval(columns, out, from, to);
+        ColumnKernels.cos(out, out, to - from);
+    }
+
+    /**
+     * cosine
+     * @param a
+     * @return
+     */
+    public static double apply(double a) {
+        return Math.cos(a);
     }
 
     /**
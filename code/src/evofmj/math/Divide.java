@@ -39,11 +39,33 @@ public class Divide extends TwoArgFunction {
 
     @Override
     public Double eval(List<Double> t) {
-        Double denom = arg2.eval(t);
-        if (Math.abs(denom) < 1e-6) {
-            return (double) 1; // cc Silva 2008 thesis
+        return apply(arg1.eval(t), arg2.eval(t));
+    }
+
+    @Override
+    public double eval(double[] row) {
+        return apply(arg1.eval(row), arg2.eval(row));
+    }
+
+    @Override
+    public void eval(double[][] columns, double[] out, int from, int to) {
+        double[] right = getBuffer(to - from);
+        arg1.eval(columns, out, from, to);
+        arg2.eval(columns, right, from, to);
+        ColumnKernels.divide(out, right, out, to - from);
+    }
+
+    /**
+     * protected division: 1 when the denominator is close to zero
+     * @param a numerator
+     * @param b denominator
+     * @return
+     */
+    public static double apply(double a, double b) {
+        if (Math.abs(b) < 1e-6) {
+            return 1; // cc Silva 2008 thesis
         } else {
-            return arg1.eval(t) / denom;
+            return a / b;
         }
     }
 
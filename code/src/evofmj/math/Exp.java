@@ -38,7 +38,27 @@ public class Exp extends OneArgFunction {
 
     @Override
     public Double eval(List<Double> t) {
-        return Math.exp(arg.eval(t));
+        return apply(arg.eval(t));
+    }
+
+    @Override
+    public double eval(double[] row) {
+        return apply(arg.eval(row));
+    }
+
+    @Override
+    public void eval(double[][] columns, double[] out, int from, int to) {
+        arg.eval(columns, out, from, to);
+        ColumnKernels.exp(out, out, to - from);
+    }
+
+    /**
+     * exponential
+     * @param a
+     * @return
+     */
+    public static double apply(double a) {
+        return Math.exp(a);
     }
 
     /**
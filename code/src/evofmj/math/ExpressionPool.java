@@ -0,0 +1,267 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.math;
+
+import evofmj.efm.GPException;
+import evofmj.genotype.TreeNode;
+import java.util.Arrays;
+
+/**
+ * Hash-consed pool of expressions. Every distinct expression is stored once,
+ * as a node made of an opcode of {@link PostfixProgram} and the ids of its
+ * arguments (or the index of a variable, or the value of a constant), and is
+ * identified by an int id. Adding an expression that is already in the pool
+ * returns the id of the existing node, so structurally equal expressions have
+ * equal ids and expressions sharing subexpressions form a DAG. The arguments
+ * of a node are always added before it, so ids are in topological order.
+ * 
+ * Nodes are interned in an open-addressing hash table: adding a node and
+ * comparing two expressions take constant time, whatever their depth.
+ *
+ * @author Ignacio Arnaldo
+ */
+public final class ExpressionPool {
+
+    private static final int NONE = -1;
+
+    // fields of the nodes, indexed by id
+    private int[] opcodes;
+    private int[] arguments1;
+    private int[] arguments2;
+    private int[] operands;
+    private double[] constants;
+    private int size;
+
+    // open-addressing table of node ids, NONE for empty entries
+    private int[] table;
+
+    /**
+     * create an empty pool
+     */
+    public ExpressionPool() {
+        opcodes = new int[64];
+        arguments1 = new int[64];
+        arguments2 = new int[64];
+        operands = new int[64];
+        constants = new double[64];
+        table = new int[128];
+        Arrays.fill(table, NONE);
+    }
+
+    /**
+     * @param index zero-based index of the variable
+     * @return the id of the variable
+     */
+    public int variable(int index) {
+        return intern(PostfixProgram.VAR, NONE, NONE, index, 0);
+    }
+
+    /**
+     * @param value
+     * @return the id of the constant
+     */
+    public int constant(double value) {
+        return intern(PostfixProgram.CONST, NONE, NONE, 0, value);
+    }
+
+    /**
+     * @param opcode a unary operator
+     * @param argument id of the argument
+     * @return the id of the expression
+     */
+    public int unary(int opcode, int argument) {
+        return intern(opcode, argument, NONE, 0, 0);
+    }
+
+    /**
+     * @param opcode a binary operator
+     * @param argument1 id of the first argument
+     * @param argument2 id of the second argument
+     * @return the id of the expression
+     */
+    public int binary(int opcode, int argument1, int argument2) {
+        return intern(opcode, argument1, argument2, 0, 0);
+    }
+
+    /**
+     * add the expression of a subtree
+     * @param node root of the subtree
+     * @return the id of the expression
+     * @throws GPException if a node is not a known function or variable
+     */
+    public int add(TreeNode node) throws GPException {
+        int opcode = PostfixProgram.getOpcodeFromLabel(node.label);
+        if (opcode == -1 || PostfixProgram.getArity(opcode) != node.children.size()) {
+            throw new GPException("can't add node " + node.label);
+        }
+        switch (node.children.size()) {
+            case 0:
+                if (opcode == PostfixProgram.VAR) {
+                    return variable(Var.getIndexFromLabel(node.label));
+                }
+                return constant(Double.parseDouble(node.label));
+            case 1:
+                return unary(opcode, add(node.children.get(0)));
+            default:
+                int argument1 = add(node.children.get(0));
+                return binary(opcode, argument1, add(node.children.get(1)));
+        }
+    }
+
+    /**
+     * @return the number of nodes of the pool
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param id
+     * @return the opcode of the node
+     */
+    public int getOpcode(int id) {
+        return opcodes[id];
+    }
+
+    /**
+     * @param id
+     * @return the id of the first argument, -1 for variables and constants
+     */
+    public int getArgument1(int id) {
+        return arguments1[id];
+    }
+
+    /**
+     * @param id
+     * @return the id of the second argument, -1 for unary operators,
+     * variables and constants
+     */
+    public int getArgument2(int id) {
+        return arguments2[id];
+    }
+
+    /**
+     * @param id
+     * @return the index of a variable
+     */
+    public int getOperand(int id) {
+        return operands[id];
+    }
+
+    /**
+     * @param id
+     * @return the value of a constant
+     */
+    public double getConstant(int id) {
+        return constants[id];
+    }
+
+    /**
+     * render an expression as the prefix S-expression written in saved models
+     * @param id
+     * @return the S-expression
+     */
+    public String toPrefixString(int id) {
+        StringBuilder sb = new StringBuilder();
+        appendPrefixString(id, sb);
+        return sb.toString();
+    }
+
+    private void appendPrefixString(int id, StringBuilder sb) {
+        switch (opcodes[id]) {
+            case PostfixProgram.VAR:
+                sb.append('X').append(operands[id] + 1);
+                break;
+            case PostfixProgram.CONST:
+                sb.append(constants[id]);
+                break;
+            default:
+                sb.append('(').append(PostfixProgram.getOperatorLabel(opcodes[id])).append(' ');
+                appendPrefixString(arguments1[id], sb);
+                if (arguments2[id] != NONE) {
+                    sb.append(' ');
+                    appendPrefixString(arguments2[id], sb);
+                }
+                sb.append(')');
+                break;
+        }
+    }
+
+    /*
+    * return the id of the node, adding it if it is not in the pool
+    */
+    private int intern(int opcode, int argument1, int argument2, int operand, double constant) {
+        int mask = table.length - 1;
+        int slot = hash(opcode, argument1, argument2, operand, constant) & mask;
+        while (table[slot] != NONE) {
+            int id = table[slot];
+            if (opcodes[id] == opcode && arguments1[id] == argument1 && arguments2[id] == argument2
+                    && operands[id] == operand
+                    && Double.doubleToLongBits(constants[id]) == Double.doubleToLongBits(constant)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == opcodes.length) {
+            int capacity = 2 * opcodes.length;
+            opcodes = Arrays.copyOf(opcodes, capacity);
+            arguments1 = Arrays.copyOf(arguments1, capacity);
+            arguments2 = Arrays.copyOf(arguments2, capacity);
+            operands = Arrays.copyOf(operands, capacity);
+            constants = Arrays.copyOf(constants, capacity);
+        }
+        int id = size++;
+        opcodes[id] = opcode;
+        arguments1[id] = argument1;
+        arguments2[id] = argument2;
+        operands[id] = operand;
+        constants[id] = constant;
+        table[slot] = id;
+        if (2 * size > table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    private void rehash() {
+        table = new int[2 * table.length];
+        Arrays.fill(table, NONE);
+        int mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hash(opcodes[id], arguments1[id], arguments2[id], operands[id], constants[id]) & mask;
+            while (table[slot] != NONE) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id;
+        }
+    }
+
+    private static int hash(int opcode, int argument1, int argument2, int operand, double constant) {
+        long bits = Double.doubleToLongBits(constant);
+        int h = opcode;
+        h = 31 * h + argument1;
+        h = 31 * h + argument2;
+        h = 31 * h + operand;
+        h = 31 * h + (int) (bits ^ (bits >>> 32));
+        // spread the bits, the table is indexed by the lowest ones
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -17,7 +17,6 @@
  */
 package evofmj.math;
 
-import java.lang.reflect.Constructor;
 import java.util.List;
 
 /**
@@ -45,6 +44,30 @@ public abstract class Function {
 	 */
 	public abstract Double eval(List<Double> t);
 
+	/**
+	 * Primitive counterpart of eval(List): evaluate this function on a
+	 * training case without boxing intermediate results.
+	 * 
+	 * @param row the values of the variables of the training case.
+	 * @return value computed by applying this function to the training case.
+	 */
+	public abstract double eval(double[] row);
+
+	/**
+	 * Evaluate this function on a range of training cases stored by columns,
+	 * one operator at a time, so that each operator runs as a tight loop over
+	 * primitive arrays. Binary functions keep a scratch buffer per node that
+	 * is reused across calls, so a function must not be evaluated in batch
+	 * by several threads at the same time.
+	 * 
+	 * @param columns columns[j][i] is the value of variable j in case i.
+	 * @param out out[i - from] receives the value of case i, must hold at
+	 *        least to - from entries.
+	 * @param from first training case, inclusive.
+	 * @param to last training case, exclusive.
+	 */
+	public abstract void eval(double[][] columns, double[] out, int from, int to);
+
 	/**
 	 * Encapsulate the mapping from a textual label to a Function object's
 	 * class. To be used for introspectively determining how to generate a
@@ -52,81 +75,37 @@ public abstract class Function {
 	 * 
 	 * @param label the string from an S-expression encoding a particular
 	 *        function
-	 * @return the class of the function encoded in label.
+	 * @return the class of the function encoded in label, or null if the
+	 *         label is not a known function or variable.
+	 * @see PostfixProgram#getOpcodeFromLabel(String)
 	 */
 	public static Class<? extends Function> getClassFromLabel(String label) {
-		if (label.startsWith("X") || label.equals("x") || label.equals("y")) {
+		int opcode = PostfixProgram.getOpcodeFromLabel(label);
+		if (opcode == PostfixProgram.VAR) {
 			return Var.class;
-		} else if (label.equals("+") || label.equals("plus")) {
-			return Plus.class;
-		} else if (label.equals("*") || label.equals(".*") || label.equals("times")) {
-			return Multiply.class;
-		} else if (label.equals("-") || label.equals("minus")) {
-			return Minus.class;
-		} else if (label.equals("/") || label.equals("./") || label.equals("mydivide")) {
-			return Divide.class;
-		} else if (label.equals("sin")) {
-			return Sin.class;
-		} else if (label.equals("cos")) {
-			return Cos.class;
-		} else if (label.equals("log") || label.equals("mylog")) {
-			return Log.class;
-		} else if (label.equals("exp")) {
-			return Exp.class;
-		} else if ((label.equals("sqrt")) || label.equals("mysqrt")) {
-			return Sqrt.class;
-		} else if (label.equals("square")) {
-			return Square.class;
-		} else if (label.equals("cube")) {
-			return Cube.class;
-		} else if (label.equals("quart")) {
-			return Quart.class;
-		} else {
+		} else if (opcode == PostfixProgram.CONST) {
+			return Const.class;
+		} else if (opcode == -1) {
 			return null;
 		}
-	}
-
-
-	/**
-	 * Given a label, return the constructor for the class of the function which
-	 * represents the label.
-	 * 
-	 * @param label
-	 * @return
-	 * @throws SecurityException
-	 * @throws NoSuchMethodException
-	 */
-	public static Constructor<? extends Function> getConstructorFromLabel(
-			String label) throws SecurityException, NoSuchMethodException {
-		Class<? extends Function> f = Function.getClassFromLabel(label);
-		int arity = Function.getArityFromLabel(label);
-		if (arity == 1) {
-			return f.getConstructor(Function.class);
-		} else if (arity == 2) {
-			return f.getConstructor(Function.class, Function.class);
-		}
-		return f.getConstructor(String.class);
-
+		return Operator.fromOpcode(opcode).getFunctionClass();
 	}
 
 	/**
 	 * Simple method for extracting the arity of the function (number of args
-	 * the function takes) encoded by the provided label string by introspecting
-	 * on the function class represented by the label.
+	 * the function takes) encoded by the provided label string, as registered
+	 * in {@link Operator}.
 	 * 
 	 * @param label string of function, from an S-expression.
 	 * @return arity of encoded function
 	 */
 	public static int getArityFromLabel(String label) {
-		Class<? extends Function> f = Function.getClassFromLabel(label);
-		if (OneArgFunction.class.isAssignableFrom(f)) {
-			return 1;
-		} else if (TwoArgFunction.class.isAssignableFrom(f)) {
-			return 2;
-		} else {
-			// Common terminals and default case
-			return 0;
+		Operator operator = Operator.fromLabel(label);
+		if (operator != null) {
+			return operator.getArity();
 		}
+		// Common terminals and default case
+		return 0;
 	}
 	
 	/**
@@ -38,11 +38,31 @@ public class Log extends OneArgFunction {
 
     @Override
     public Double eval(List<Double> t) {
-        Double a = Math.abs(arg.eval(t));
-        if (a < 1e-6) {
-            return (double) 0; // cc Silva 2008 thesis
+        return apply(arg.eval(t));
+    }
+
+    @Override
+    public double eval(double[] row) {
+        return apply(arg.eval(row));
+    }
+
+    @Override
+    public void eval(double[][] columns, double[] out, int from, int to) {
+        arg.eval(columns, out, from, to);
+        ColumnKernels.log(out, out, to - from);
+    }
+
+    /**
+     * protected logarithm: log of the absolute value, 0 when it is close to zero
+     * @param a
+     * @return
+     */
+    public static double apply(double a) {
+        double abs = Math.abs(a);
+        if (abs < 1e-6) {
+            return 0; // cc Silva 2008 thesis
         } else {
-            return Math.log(a);
+            return Math.log(abs);
         }
     }
 
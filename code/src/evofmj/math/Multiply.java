@@ -39,7 +39,30 @@ public class Multiply extends TwoArgFunction {
 
     @Override
     public Double eval(List<Double> t) {
-        return arg1.eval(t) * arg2.eval(t);
+        return apply(arg1.eval(t), arg2.eval(t));
+    }
+
+    @Override
+    public double eval(double[] row) {
+        return apply(arg1.eval(row), arg2.eval(row));
+    }
+
+    @Override
+    public void eval(double[][] columns, double[] out, int from, int to) {
+        double[] right = getBuffer(to - from);
+        arg1.eval(columns, out, from, to);
+        arg2.eval(columns, right, from, to);
+        ColumnKernels.multiply(out, right, out, to - from);
+    }
+
+    /**
+     * product
+     * @param a
+     * @param b
+     * @return
+     */
+    public static double apply(double a, double b) {
+        return a * b;
     }
 
     /**
@@ -0,0 +1,393 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.math;
+
+import java.util.HashMap;
+
+/**
+ * Registry of the operators of evofmj.math. Each operator carries its
+ * postfix opcode, its arity, the label written in saved models and the
+ * labels accepted when parsing, its scalar and whole-column kernels and its
+ * Java source form, and builds its {@link Function} node. Feature composition during training,
+ * parsing of saved models and scoring all go through this registry, so an
+ * operator is defined in a single place.
+ *
+ * @author Ignacio Arnaldo
+ */
+public enum Operator {
+
+    PLUS(PostfixProgram.PLUS, 2, Plus.class, "(%1$s + %2$s)", "+", "plus") {
+        @Override
+        public double apply(double a, double b) {
+            return Plus.apply(a, b);
+        }
+
+        @Override
+        public void apply(double[] a, double[] b, double[] out, int length) {
+            ColumnKernels.plus(a, b, out, length);
+        }
+
+        @Override
+        public Function createFunction(Function a1, Function a2) {
+            return new Plus(a1, a2);
+        }
+    },
+
+    MINUS(PostfixProgram.MINUS, 2, Minus.class, "(%1$s - %2$s)", "-", "minus") {
+        @Override
+        public double apply(double a, double b) {
+            return Minus.apply(a, b);
+        }
+
+        @Override
+        public void apply(double[] a, double[] b, double[] out, int length) {
+            ColumnKernels.minus(a, b, out, length);
+        }
+
+        @Override
+        public Function createFunction(Function a1, Function a2) {
+            return new Minus(a1, a2);
+        }
+    },
+
+    MULTIPLY(PostfixProgram.MULTIPLY, 2, Multiply.class, "(%1$s * %2$s)", "*", ".*", "times") {
+        @Override
+        public double apply(double a, double b) {
+            return Multiply.apply(a, b);
+        }
+
+        @Override
+        public void apply(double[] a, double[] b, double[] out, int length) {
+            ColumnKernels.multiply(a, b, out, length);
+        }
+
+        @Override
+        public Function createFunction(Function a1, Function a2) {
+            return new Multiply(a1, a2);
+        }
+    },
+
+    DIVIDE(PostfixProgram.DIVIDE, 2, Divide.class, "(Math.abs(%2$s) < 1e-6 ? 1 : %1$s / %2$s)", "mydivide", "/", "./") {
+        @Override
+        public double apply(double a, double b) {
+            return Divide.apply(a, b);
+        }
+
+        @Override
+        public void apply(double[] a, double[] b, double[] out, int length) {
+            ColumnKernels.divide(a, b, out, length);
+        }
+
+        @Override
+        public Function createFunction(Function a1, Function a2) {
+            return new Divide(a1, a2);
+        }
+    },
+
+    SIN(PostfixProgram.SIN, 1, Sin.class, "Math.sin(%1$s)", "sin") {
+        @Override
+        public double apply(double a) {
+            return Sin.apply(a);
+        }
+
+        @Override
+        public void apply(double[] a, double[] out, int length) {
+            ColumnKernels.sin(a, out, length);
+        }
+
+        @Override
+        public Function createFunction(Function a1, Function a2) {
+            return new Sin(a1);
+        }
+    },
+
+    COS(PostfixProgram.COS, 1, Cos.class, "Math.cos(%1$s)", "cos") {
+        @Override
+        public double apply(double a) {
+            return Cos.apply(a);
+        }
+
+        @Override
+        public void apply(double[] a, double[] out, int length) {
+            ColumnKernels.cos(a, out, length);
+        }
+
+        @Override
+        public Function createFunction(Function a1, Function a2) {
+            return new Cos(a1);
+        }
+    },
+
+    LOG(PostfixProgram.LOG, 1, Log.class, "(Math.abs(%1$s) < 1e-6 ? 0 : Math.log(Math.abs(%1$s)))", "mylog", "log") {
+        @Override
+        public double apply(double a) {
+            return Log.apply(a);
+        }
+
+        @Override
+        public void apply(double[] a, double[] out, int length) {
+            ColumnKernels.log(a, out, length);
+        }
+
+        @Override
+        public Function createFunction(Function a1, Function a2) {
+            return new Log(a1);
+        }
+    },
+
+    EXP(PostfixProgram.EXP, 1, Exp.class, "Math.exp(%1$s)", "exp") {
+        @Override
+        public double apply(double a) {
+            return Exp.apply(a);
+        }
+
+        @Override
+        public void apply(double[] a, double[] out, int length) {
+            ColumnKernels.exp(a, out, length);
+        }
+
+        @Override
+        public Function createFunction(Function a1, Function a2) {
+            return new Exp(a1);
+        }
+    },
+
+    SQRT(PostfixProgram.SQRT, 1, Sqrt.class, "Math.sqrt(Math.abs(%1$s))", "sqrt", "mysqrt") {
+        @Override
+        public double apply(double a) {
+            return Sqrt.apply(a);
+        }
+
+        @Override
+        public void apply(double[] a, double[] out, int length) {
+            ColumnKernels.sqrt(a, out, length);
+        }
+
+        @Override
+        public Function createFunction(Function a1, Function a2) {
+            return new Sqrt(a1);
+        }
+    },
+
+    SQUARE(PostfixProgram.SQUARE, 1, Square.class, "Math.pow(%1$s, 2)", "square") {
+        @Override
+        public double apply(double a) {
+            return Square.apply(a);
+        }
+
+        @Override
+        public void apply(double[] a, double[] out, int length) {
+            ColumnKernels.square(a, out, length);
+        }
+
+        @Override
+        public Function createFunction(Function a1, Function a2) {
+            return new Square(a1);
+        }
+    },
+
+    CUBE(PostfixProgram.CUBE, 1, Cube.class, "Math.pow(%1$s, 3)", "cube") {
+        @Override
+        public double apply(double a) {
+            return Cube.apply(a);
+        }
+
+        @Override
+        public void apply(double[] a, double[] out, int length) {
+            ColumnKernels.cube(a, out, length);
+        }
+
+        @Override
+        public Function createFunction(Function a1, Function a2) {
+            return new Cube(a1);
+        }
+    },
+
+    QUART(PostfixProgram.QUART, 1, Quart.class, "Math.pow(%1$s, 4)", "quart") {
+        @Override
+        public double apply(double a) {
+            return Quart.apply(a);
+        }
+
+        @Override
+        public void apply(double[] a, double[] out, int length) {
+            ColumnKernels.quart(a, out, length);
+        }
+
+        @Override
+        public Function createFunction(Function a1, Function a2) {
+            return new Quart(a1);
+        }
+    },
+
+    ABS(PostfixProgram.ABS, 1, Abs.class, "Math.abs(%1$s)", "abs") {
+        @Override
+        public double apply(double a) {
+            return Abs.apply(a);
+        }
+
+        @Override
+        public void apply(double[] a, double[] out, int length) {
+            ColumnKernels.abs(a, out, length);
+        }
+
+        @Override
+        public Function createFunction(Function a1, Function a2) {
+            return new Abs(a1);
+        }
+    };
+
+    private static final HashMap<String, Operator> BY_LABEL = new HashMap<String, Operator>();
+    private static final Operator[] BY_OPCODE = new Operator[PostfixProgram.CONST + 1];
+
+    static {
+        for (Operator op : values()) {
+            BY_LABEL.put(op.label, op);
+            for (String alias : op.aliases) {
+                BY_LABEL.put(alias, op);
+            }
+            BY_OPCODE[op.opcode] = op;
+        }
+    }
+
+    private final int opcode;
+    private final int arity;
+    private final Class<? extends Function> functionClass;
+    private final String javaFormatString;
+    private final String label;
+    private final String[] aliases;
+
+    private Operator(int anOpcode, int anArity, Class<? extends Function> aFunctionClass,
+            String aJavaFormatString, String aLabel, String... someAliases) {
+        opcode = anOpcode;
+        arity = anArity;
+        functionClass = aFunctionClass;
+        javaFormatString = aJavaFormatString;
+        label = aLabel;
+        aliases = someAliases;
+    }
+
+    /**
+     * @param aLabel label of an S-expression node
+     * @return the operator, or null if the label is not an operator
+     */
+    public static Operator fromLabel(String aLabel) {
+        return BY_LABEL.get(aLabel);
+    }
+
+    /**
+     * @param anOpcode
+     * @return the operator, or null if the opcode is not an operator
+     */
+    public static Operator fromOpcode(int anOpcode) {
+        if (anOpcode < 0 || anOpcode >= BY_OPCODE.length) {
+            return null;
+        }
+        return BY_OPCODE[anOpcode];
+    }
+
+    /**
+     * @return the opcode of the operator in postfix programs
+     */
+    public int getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * @return the number of arguments
+     */
+    public int getArity() {
+        return arity;
+    }
+
+    /**
+     * @return the class of the {@link Function} nodes of the operator
+     */
+    public Class<? extends Function> getFunctionClass() {
+        return functionClass;
+    }
+
+    /**
+     * @return the label written in saved models
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * Print the operator as a Java expression with the same semantics as its
+     * kernels, using only java.lang.Math. The arguments are evaluated more
+     * than once by protected operators, so they should be variable names or
+     * literals.
+     * @param arguments Java expressions of the arguments
+     * @return the Java expression
+     */
+    public String toJavaExpression(String... arguments) {
+        return String.format(javaFormatString, (Object[]) arguments);
+    }
+
+    /**
+     * scalar kernel of unary operators
+     * @param a
+     * @return
+     */
+    public double apply(double a) {
+        throw new UnsupportedOperationException(label + " is not unary");
+    }
+
+    /**
+     * scalar kernel of binary operators
+     * @param a
+     * @param b
+     * @return
+     */
+    public double apply(double a, double b) {
+        throw new UnsupportedOperationException(label + " is not binary");
+    }
+
+    /**
+     * column kernel of unary operators, see {@link ColumnKernels}
+     * @param a argument
+     * @param out result
+     * @param length number of entries
+     */
+    public void apply(double[] a, double[] out, int length) {
+        throw new UnsupportedOperationException(label + " is not unary");
+    }
+
+    /**
+     * column kernel of binary operators, see {@link ColumnKernels}
+     * @param a first argument
+     * @param b second argument
+     * @param out result
+     * @param length number of entries
+     */
+    public void apply(double[] a, double[] b, double[] out, int length) {
+        throw new UnsupportedOperationException(label + " is not binary");
+    }
+
+    /**
+     * build the node of a function tree
+     * @param a1 first argument
+     * @param a2 second argument, null for unary operators
+     * @return the function
+     */
+    public abstract Function createFunction(Function a1, Function a2);
+}
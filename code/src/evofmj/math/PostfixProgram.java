@@ -0,0 +1,223 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.math;
+
+/**
+ * Flat, compiled form of an expression tree. The tree is encoded once as a
+ * postfix sequence of instructions that are executed over a stack of doubles,
+ * so evaluating a training case neither builds {@link Function} objects nor
+ * boxes intermediate values. The operators are resolved to their
+ * {@link Operator} when the program is created, and have the same semantics
+ * as the corresponding {@link Function} classes.
+ *
+ * @author Ignacio Arnaldo
+ */
+public final class PostfixProgram {
+
+    /**
+     * push a variable of the training case
+     */
+    public static final int VAR = 0;
+    /**
+     * binary operators
+     */
+    public static final int PLUS = 1, MINUS = 2, MULTIPLY = 3, DIVIDE = 4;
+    /**
+     * unary operators
+     */
+    public static final int SIN = 5, COS = 6, LOG = 7, EXP = 8, SQRT = 9, SQUARE = 10, CUBE = 11, QUART = 12, ABS = 13;
+    /**
+     * push a constant
+     */
+    public static final int CONST = 14;
+
+    // the instructions of the program
+    private final int[] opcodes;
+
+    // index of the variable pushed by VAR instructions, unused otherwise
+    private final int[] operands;
+
+    // value pushed by CONST instructions, unused otherwise
+    private final double[] constants;
+
+    // operator of each instruction, null for VAR and CONST instructions
+    private final Operator[] operators;
+
+    // stack size needed to run the program
+    private final int maxStackDepth;
+
+    /**
+     * create a program from its postfix instructions
+     * @param someOpcodes
+     * @param someOperands
+     * @param someConstants
+     */
+    public PostfixProgram(int[] someOpcodes, int[] someOperands, double[] someConstants) {
+        opcodes = someOpcodes;
+        operands = someOperands;
+        constants = someConstants;
+        operators = new Operator[opcodes.length];
+        int depth = 0;
+        int maxDepth = 0;
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            if (opcodes[pc] != VAR && opcodes[pc] != CONST) {
+                operators[pc] = Operator.fromOpcode(opcodes[pc]);
+                if (operators[pc] == null) {
+                    throw new IllegalArgumentException("unknown opcode " + opcodes[pc] + " at instruction " + pc);
+                }
+            }
+            depth += 1 - getArity(opcodes[pc]);
+            if (depth < 1) {
+                throw new IllegalArgumentException("stack underflow at instruction " + pc);
+            }
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        if (depth != 1) {
+            throw new IllegalArgumentException("malformed program, " + depth + " values left on the stack");
+        }
+        maxStackDepth = maxDepth;
+    }
+
+    /**
+     * Evaluate the program on a training case
+     * @param row the values of the variables
+     * @param stack scratch space of at least getMaxStackDepth() entries
+     * @return the value of the expression
+     */
+    public double eval(double[] row, double[] stack) {
+        int sp = 0;
+        for (int pc = 0; pc < opcodes.length; pc++) {
+            switch (opcodes[pc]) {
+                case VAR:
+                    stack[sp++] = row[operands[pc]];
+                    break;
+                case CONST:
+                    stack[sp++] = constants[pc];
+                    break;
+                default:
+                    Operator operator = operators[pc];
+                    if (operator.getArity() == 2) {
+                        sp--;
+                        stack[sp - 1] = operator.apply(stack[sp - 1], stack[sp]);
+                    } else {
+                        stack[sp - 1] = operator.apply(stack[sp - 1]);
+                    }
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+     * @return the stack size needed to run the program
+     */
+    public int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+
+    /**
+     * @return the number of instructions
+     */
+    public int size() {
+        return opcodes.length;
+    }
+
+    /**
+     * @param pc position of the instruction
+     * @return the opcode of the instruction
+     */
+    public int getOpcode(int pc) {
+        return opcodes[pc];
+    }
+
+    /**
+     * @param pc position of the instruction
+     * @return the index of the variable pushed by a VAR instruction
+     */
+    public int getOperand(int pc) {
+        return operands[pc];
+    }
+
+    /**
+     * @param pc position of the instruction
+     * @return the value pushed by a CONST instruction
+     */
+    public double getConstant(int pc) {
+        return constants[pc];
+    }
+
+    /**
+     * Map an instruction back to the label written in saved models
+     * @param pc position of the instruction
+     * @return the label of the S-expression node
+     */
+    public String getLabel(int pc) {
+        switch (opcodes[pc]) {
+            case VAR:
+                return "X" + (operands[pc] + 1);
+            case CONST:
+                return Double.toString(constants[pc]);
+            default:
+                return getOperatorLabel(opcodes[pc]);
+        }
+    }
+
+    /**
+     * @param opcode an operator
+     * @return the label written in saved models for the operator
+     */
+    public static String getOperatorLabel(int opcode) {
+        Operator operator = Operator.fromOpcode(opcode);
+        if (operator == null) {
+            throw new IllegalArgumentException("unknown operator " + opcode);
+        }
+        return operator.getLabel();
+    }
+
+    /**
+     * Map a label of an S-expression to an opcode
+     * @param label
+     * @return the opcode, or -1 if the label is not a known function or variable
+     */
+    public static int getOpcodeFromLabel(String label) {
+        if (Var.isVariableLabel(label)) {
+            return VAR;
+        }
+        Operator operator = Operator.fromLabel(label);
+        if (operator != null) {
+            return operator.getOpcode();
+        } else if (Const.isConstantLabel(label)) {
+            return CONST;
+        }
+        return -1;
+    }
+
+    /**
+     * @param opcode
+     * @return the number of arguments of the instruction
+     */
+    public static int getArity(int opcode) {
+        if (opcode == VAR || opcode == CONST) {
+            return 0;
+        } else if (opcode <= DIVIDE) {
+            return 2;
+        }
+        return 1;
+    }
+}
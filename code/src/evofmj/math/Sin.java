@@ -37,7 +37,27 @@ public class Sin extends OneArgFunction {
 
     @Override
     public Double eval(List<Double> t) {
-        return Math.sin(arg.eval(t));
+        return apply(arg.eval(t));
+    }
+
+    @Override
+    public double eval(double[] row) {
+        return apply(arg.eval(row));
+    }
+
+    @Override
+    public void eval(double[][] columns, double[] out, int from, int to) {
+        arg.eval(columns, out, from, to);
+        ColumnKernels.sin(out, out, to - from);
+    }
+
+    /**
+     * sine
+     * @param a
+     * @return
+     */
+    public static double apply(double a) {
+        return Math.sin(a);
     }
 
     /**
@@ -37,7 +37,27 @@ public class Sqrt extends OneArgFunction {
 
     @Override
     public Double eval(List<Double> t) {
-        return Math.sqrt(Math.abs(arg.eval(t)));
+        return apply(arg.eval(t));
+    }
+
+    @Override
+    public double eval(double[] row) {
+        return apply(arg.eval(row));
+    }
+
+    @Override
+    public void eval(double[][] columns, double[] out, int from, int to) {
+        arg.eval(columns, out, from, to);
+        ColumnKernels.sqrt(out, out, to - from);
+    }
+
+    /**
+     * protected square root: square root of the absolute value
+     * @param a
+     * @return
+     */
+    public static double apply(double a) {
+        return Math.sqrt(Math.abs(a));
     }
 
     /**
@@ -38,7 +38,27 @@ public class Square extends OneArgFunction {
 
     @Override
     public Double eval(List<Double> t) {
-        return Math.pow(arg.eval(t), 2);
+        return apply(arg.eval(t));
+    }
+
+    @Override
+    public double eval(double[] row) {
+        return apply(arg.eval(row));
+    }
+
+    @Override
+    public void eval(double[][] columns, double[] out, int from, int to) {
+        arg.eval(columns, out, from, to);
+        ColumnKernels.square(out, out, to - from);
+    }
+
+    /**
+     * square
+     * @param a
+     * @return
+     */
+    public static double apply(double a) {
+        return Math.pow(a, 2);
     }
 
     /**
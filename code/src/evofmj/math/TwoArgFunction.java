@@ -34,6 +34,9 @@ public abstract class TwoArgFunction extends Function {
      */
     protected final Function arg2;
 
+    // values of the second argument in batch evaluation
+    private double[] buffer;
+
     /**
      * create a function with two arguments
      * @param a1
@@ -44,4 +47,17 @@ public abstract class TwoArgFunction extends Function {
         arg2 = a2;
     }
 
+    /**
+     * scratch buffer for the values of the second argument in batch
+     * evaluation, grown on demand and reused across calls
+     * @param length minimum number of entries
+     * @return the buffer
+     */
+    protected double[] getBuffer(int length) {
+        if (buffer == null || buffer.length < length) {
+            buffer = new double[length];
+        }
+        return buffer;
+    }
+
 }
\ No newline at end of file
@@ -38,13 +38,31 @@ public class Var extends ZeroArgFunction {
      */
     public Var(String label) throws GPException {
             super(label);
+            ind = getIndexFromLabel(label);
+	}
+
+    /**
+     * @param label
+     * @return whether the label names a variable: Xn, x or y
+     */
+    public static boolean isVariableLabel(String label) {
+        return label.startsWith("X") || label.equals("x") || label.equals("y");
+    }
+
+    /**
+     * index of the variable in the training case encoded by a label
+     * @param label
+     * @return zero-based index of the variable
+     * @throws GPException
+     */
+    public static int getIndexFromLabel(String label) throws GPException {
             if (label.startsWith("X")) {
                 String numPart = label.substring(1);
-                ind = Integer.parseInt(numPart) - 1; // zero-index
+                return Integer.parseInt(numPart) - 1; // zero-index
             } else if (label.equals("x")) {
-                ind = 0;
+                return 0;
             } else if (label.equals("y")) {
-                ind = 1;
+                return 1;
             } else {
                 throw new GPException("Unknonwn variable: " + label);
             }
@@ -55,6 +73,16 @@ public class Var extends ZeroArgFunction {
             return t.get(ind);
 	}
 
+	@Override
+	public double eval(double[] row) {
+            return row[ind];
+	}
+
+	@Override
+	public void eval(double[][] columns, double[] out, int from, int to) {
+            System.arraycopy(columns[ind], from, out, 0, to - from);
+	}
+
     /**
      *
      * @return
@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ * 
+ * Licensed under the MIT License.
+ * 
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.  
+ *
+ * @author Ignacio Arnaldo
+ * 
+ */
+package evofmj.model;
+
+import evofmj.efm.GPException;
+import evofmj.math.ExpressionPool;
+import evofmj.math.Operator;
+import evofmj.math.PostfixProgram;
+import java.util.Arrays;
+
+/**
+ * Scores an EFM model over blocks of rows stored by columns.
+ * 
+ * The features of a model are built by composing archive features, so they
+ * share many subexpressions. The scorer merges all the features into one
+ * hash-consed {@link ExpressionPool}, and each node of the resulting DAG is
+ * evaluated once per block, over the whole block, with the column kernels of
+ * evofmj.math, the same kernels used to compose features during training.
+ * The buffers holding the values of the nodes are allocated once, when the
+ * model is compiled: a node releases its buffer after its last use, so the
+ * number of buffers only depends on the width of the DAG. Rows are processed
+ * in blocks of BLOCK_SIZE so that these buffers stay in cache while the
+ * kernels stream over them.
+ * 
+ * The predictions are identical to those of the row-at-a-time evaluation:
+ * the weighted feature values are accumulated in the order of the features,
+ * features that evaluate to NaN or infinity count as 0, terms with a zero
+ * weight are dropped, and predictions are clamped to the range of the
+ * training targets and optionally rounded. A scorer reuses its buffers and
+ * must not be shared by several threads.
+ * 
+ * @author Ignacio Arnaldo
+ */
+public class BatchScorer {
+
+    /**
+     * number of rows evaluated at once: 1024 doubles take 8 KB, so the
+     * intermediate buffers of a model fit in the L1/L2 caches
+     */
+    public static final int BLOCK_SIZE = 1024;
+
+    private final double targetMin, targetMax;
+    private final double intercept;
+    private final boolean round;
+
+    // DAG of the features of the terms with a non-zero weight
+    private final ExpressionPool pool;
+
+    // node of the DAG and weight of each term, in the order of the model
+    private final int[] termNodes;
+    private final double[] weights;
+
+    // buffer holding the values of each node of the DAG
+    private final int[] nodeBuffers;
+    private final double[][] buffers;
+
+    // operator of each node of the DAG, null for variables and constants
+    private final Operator[] operators;
+
+    /**
+     * create a scorer for a model
+     * @param model
+     * @param aRound whether predictions are rounded to the closest integer
+     * @throws GPException if a feature contains an unknown function or variable
+     */
+    public BatchScorer(EFMModel model, boolean aRound) throws GPException {
+        targetMin = model.getTargetMin();
+        targetMax = model.getTargetMax();
+        intercept = model.getIntercept();
+        round = aRound;
+        int numberOfTerms = 0;
+        for (int j = 0; j < model.getNumberOfFeatures(); j++) {
+            if (model.getWeight(j) != 0) {
+                numberOfTerms++;
+            }
+        }
+        pool = new ExpressionPool();
+        termNodes = new int[numberOfTerms];
+        weights = new double[numberOfTerms];
+        int t = 0;
+        for (int j = 0; j < model.getNumberOfFeatures(); j++) {
+            if (model.getWeight(j) != 0) {
+                termNodes[t] = pool.add(model.getFeature(j).getRoot());
+                weights[t] = model.getWeight(j);
+                t++;
+            }
+        }
+        operators = new Operator[pool.size()];
+        for (int id = 0; id < pool.size(); id++) {
+            operators[id] = Operator.fromOpcode(pool.getOpcode(id));
+        }
+        nodeBuffers = new int[pool.size()];
+        buffers = allocateBuffers();
+    }
+
+    /*
+    * assign a buffer to each node, reusing the buffers of nodes whose values
+    * are no longer needed; the values of the terms are kept until the end of
+    * the block, when they are accumulated
+    */
+    private double[][] allocateBuffers() {
+        int n = pool.size();
+        int[] lastUse = new int[n];
+        for (int id = 0; id < n; id++) {
+            lastUse[id] = id;
+            if (pool.getArgument1(id) != -1) {
+                lastUse[pool.getArgument1(id)] = id;
+            }
+            if (pool.getArgument2(id) != -1) {
+                lastUse[pool.getArgument2(id)] = id;
+            }
+        }
+        for (int node : termNodes) {
+            lastUse[node] = n;
+        }
+        int[] freeBuffers = new int[n];
+        int numberOfFreeBuffers = 0;
+        int numberOfBuffers = 0;
+        for (int id = 0; id < n; id++) {
+            if (numberOfFreeBuffers > 0) {
+                nodeBuffers[id] = freeBuffers[--numberOfFreeBuffers];
+            } else {
+                nodeBuffers[id] = numberOfBuffers++;
+            }
+            // the arguments are read before the node is written, so their
+            // buffers can be reused from the next node on
+            int[] arguments = {pool.getArgument1(id), pool.getArgument2(id)};
+            for (int k = 0; k < arguments.length; k++) {
+                int a = arguments[k];
+                if (a != -1 && lastUse[a] == id && (k == 0 || a != arguments[0])) {
+                    freeBuffers[numberOfFreeBuffers++] = nodeBuffers[a];
+                }
+            }
+            if (lastUse[id] == id) {
+                freeBuffers[numberOfFreeBuffers++] = nodeBuffers[id];
+            }
+        }
+        return new double[numberOfBuffers][BLOCK_SIZE];
+    }
+
+    /**
+     * compute the predictions of a range of rows
+     * @param columns columns[j][i] is the value of variable j in row i
+     * @param predictions predictions[i - from] receives the prediction of row i
+     * @param from first row, inclusive
+     * @param to last row, exclusive
+     */
+    public void predict(double[][] columns, double[] predictions, int from, int to) {
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            int end = Math.min(to, start + BLOCK_SIZE);
+            predictBlock(columns, predictions, start - from, start, end);
+        }
+    }
+
+    private void predictBlock(double[][] columns, double[] predictions, int offset, int from, int to) {
+        int length = to - from;
+        for (int id = 0; id < pool.size(); id++) {
+            evalNode(id, columns, from, length);
+        }
+        for (int i = 0; i < length; i++) {
+            predictions[offset + i] = intercept;
+        }
+        for (int t = 0; t < termNodes.length; t++) {
+            double[] featureValues = buffers[nodeBuffers[termNodes[t]]];
+            double w = weights[t];
+            for (int i = 0; i < length; i++) {
+                double value = featureValues[i];
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    value = 0;
+                }
+                predictions[offset + i] += w * value;
+            }
+        }
+        for (int i = offset; i < offset + length; i++) {
+            double prediction = predictions[i];
+            if (prediction < targetMin) prediction = targetMin;
+            if (prediction > targetMax) prediction = targetMax;
+            if (round) prediction = Math.round(prediction);
+            predictions[i] = prediction;
+        }
+    }
+
+    /*
+    * compute the values of a node of the DAG over a block
+    */
+    private void evalNode(int id, double[][] columns, int from, int length) {
+        double[] out = buffers[nodeBuffers[id]];
+        int opcode = pool.getOpcode(id);
+        if (opcode == PostfixProgram.VAR) {
+            System.arraycopy(columns[pool.getOperand(id)], from, out, 0, length);
+            return;
+        }
+        if (opcode == PostfixProgram.CONST) {
+            Arrays.fill(out, 0, length, pool.getConstant(id));
+            return;
+        }
+        double[] a = buffers[nodeBuffers[pool.getArgument1(id)]];
+        Operator operator = operators[id];
+        if (operator.getArity() == 2) {
+            operator.apply(a, buffers[nodeBuffers[pool.getArgument2(id)]], out, length);
+        } else {
+            operator.apply(a, out, length);
+        }
+    }
+
+    /**
+     * @return the number of distinct subexpressions evaluated per row
+     */
+    public int getNumberOfNodes() {
+        return pool.size();
+    }
+}
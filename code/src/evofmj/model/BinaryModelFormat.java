@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ * 
+ * Licensed under the MIT License.
+ * 
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.  
+ *
+ * @author Ignacio Arnaldo
+ * 
+ */
+package evofmj.model;
+
+import evofmj.efm.GPException;
+import evofmj.genotype.Tree;
+import evofmj.genotype.TreeGenerator;
+import evofmj.math.PostfixProgram;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary encoding of EFM models, loaded with a single read and no
+ * text parsing. All values are big-endian:
+ * 
+ * int magic ("EFMB"), int version,
+ * double targetMin, double targetMax, double intercept,
+ * int numberOfFeatures, and for each feature:
+ * double weight, int numberOfInstructions, and for each postfix instruction
+ * a byte opcode followed, for VAR instructions, by the int index of the
+ * variable and, for CONST instructions, by the double value of the constant.
+ * The file ends with the long CRC32 of all the preceding bytes.
+ * 
+ * @author Ignacio Arnaldo
+ */
+public final class BinaryModelFormat {
+
+    /**
+     * first four bytes of binary models, "EFMB"
+     */
+    public static final int MAGIC = 0x45464D42;
+
+    /**
+     * version of the format written by save
+     */
+    public static final int VERSION = 1;
+
+    private BinaryModelFormat() {
+    }
+
+    /**
+     * @param path
+     * @return whether the file starts with the magic number of binary models
+     * @throws IOException
+     */
+    public static boolean isBinaryModel(String path) throws IOException {
+        FileInputStream in = new FileInputStream(path);
+        try {
+            byte[] head = new byte[4];
+            int n = 0;
+            while (n < head.length) {
+                int r = in.read(head, n, head.length - n);
+                if (r < 0) {
+                    return false;
+                }
+                n += r;
+            }
+            return ByteBuffer.wrap(head).getInt() == MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * write a model in binary format
+     * @param model
+     * @param path
+     * @throws IOException
+     */
+    public static void save(EFMModel model, String path) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeDouble(model.getTargetMin());
+        out.writeDouble(model.getTargetMax());
+        out.writeDouble(model.getIntercept());
+        out.writeInt(model.getNumberOfFeatures());
+        for (int j = 0; j < model.getNumberOfFeatures(); j++) {
+            PostfixProgram program;
+            try {
+                program = model.getFeature(j).compile();
+            } catch (GPException e) {
+                throw new IOException("Error in feature " + j + ": " + e.getMessage());
+            }
+            out.writeDouble(model.getWeight(j));
+            out.writeInt(program.size());
+            for (int pc = 0; pc < program.size(); pc++) {
+                out.writeByte(program.getOpcode(pc));
+                if (program.getOpcode(pc) == PostfixProgram.VAR) {
+                    out.writeInt(program.getOperand(pc));
+                } else if (program.getOpcode(pc) == PostfixProgram.CONST) {
+                    out.writeDouble(program.getConstant(pc));
+                }
+            }
+        }
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.close();
+        OutputStream file = new FileOutputStream(path);
+        try {
+            bytes.writeTo(file);
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * read a model in binary format
+     * @param path
+     * @return the model
+     * @throws IOException if the file is not a valid binary model
+     */
+    public static EFMModel load(String path) throws IOException {
+        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        if (bytes.length < 8) {
+            throw new IOException("Error in model " + path + ": truncated file");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getLong(bytes.length - 8) != crc.getValue()) {
+            throw new IOException("Error in model " + path + ": checksum mismatch");
+        }
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Error in model " + path + ": not a binary model");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Error in model " + path + ": unsupported version " + version);
+            }
+            double targetMin = buffer.getDouble();
+            double targetMax = buffer.getDouble();
+            double intercept = buffer.getDouble();
+            int numberOfFeatures = buffer.getInt();
+            double[] weights = new double[numberOfFeatures];
+            Tree[] features = new Tree[numberOfFeatures];
+            for (int j = 0; j < numberOfFeatures; j++) {
+                weights[j] = buffer.getDouble();
+                int size = buffer.getInt();
+                int[] opcodes = new int[size];
+                int[] operands = new int[size];
+                double[] constants = new double[size];
+                for (int pc = 0; pc < size; pc++) {
+                    opcodes[pc] = buffer.get();
+                    if (opcodes[pc] == PostfixProgram.VAR) {
+                        operands[pc] = buffer.getInt();
+                    } else if (opcodes[pc] == PostfixProgram.CONST) {
+                        constants[pc] = buffer.getDouble();
+                    }
+                }
+                features[j] = TreeGenerator.generateTree(new PostfixProgram(opcodes, operands, constants));
+            }
+            return new EFMModel(targetMin, targetMax, intercept, weights, features);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Error in model " + path + ": truncated file");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Error in model " + path + ": " + e.getMessage());
+        } catch (GPException e) {
+            throw new IOException("Error in model " + path + ": " + e.getMessage());
+        }
+    }
+}
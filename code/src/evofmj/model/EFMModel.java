@@ -0,0 +1,318 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ * 
+ * Licensed under the MIT License.
+ * 
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.  
+ *
+ * @author Ignacio Arnaldo
+ * 
+ */
+package evofmj.model;
+
+import evofmj.efm.GPException;
+import evofmj.genotype.Tree;
+import evofmj.genotype.TreeGenerator;
+import evofmj.genotype.TreeNode;
+import evofmj.genotype.TreeSimplifier;
+import evofmj.math.Function;
+import evofmj.math.PostfixProgram;
+import evofmj.math.Var;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Scanner;
+
+/**
+ * A model obtained with the EFM method: a linear combination of complex
+ * features whose prediction is clamped to the range of the training targets.
+ * Models are saved as text by RegressionEFM (model.txt):
+ * the min,max target values, the intercept, and one " + weight * feature"
+ * line per feature, where the feature is a prefix S-expression.
+ * 
+ * Models are immutable and compiled once, when they are created, into
+ * {@link Function} trees evaluated with primitive doubles. predict can thus
+ * be called concurrently from any number of threads and allocates nothing.
+ * 
+ * @author Ignacio Arnaldo
+ */
+public class EFMModel {
+    
+    private final double targetMin, targetMax;
+    private final double intercept;
+    private final double[] weights;
+    private final Tree[] features;
+
+    // compiled features and weights of the terms with a non-zero weight
+    private final Function[] terms;
+    private final double[] termWeights;
+
+    // number of original features read by the model
+    private final int numberOfVariables;
+
+    /**
+     * create a model
+     * @param aTargetMin
+     * @param aTargetMax
+     * @param anIntercept
+     * @param someWeights
+     * @param someFeatures copied, later changes to the trees do not affect the model
+     * @throws GPException if a feature contains an unknown function or variable
+     */
+    public EFMModel(double aTargetMin, double aTargetMax, double anIntercept, double[] someWeights, Tree[] someFeatures) throws GPException {
+        targetMin = aTargetMin;
+        targetMax = aTargetMax;
+        intercept = anIntercept;
+        weights = someWeights.clone();
+        features = new Tree[someFeatures.length];
+        for (int j = 0; j < features.length; j++) {
+            features[j] = (Tree) someFeatures[j].copy();
+        }
+        int numberOfTerms = 0;
+        for (int j = 0; j < weights.length; j++) {
+            if (weights[j] != 0) {
+                numberOfTerms++;
+            }
+        }
+        terms = new Function[numberOfTerms];
+        termWeights = new double[numberOfTerms];
+        int t = 0;
+        for (int j = 0; j < weights.length; j++) {
+            if (weights[j] != 0) {
+                terms[t] = features[j].getRoot().generate();
+                termWeights[t] = weights[j];
+                t++;
+            }
+        }
+        int maxVariable = 0;
+        for (Tree feature : features) {
+            for (TreeNode node : feature.getRoot().depthFirstTraversal()) {
+                if (PostfixProgram.getOpcodeFromLabel(node.label) == PostfixProgram.VAR) {
+                    maxVariable = Math.max(maxVariable, Var.getIndexFromLabel(node.label) + 1);
+                }
+            }
+        }
+        numberOfVariables = maxVariable;
+    }
+
+    /**
+     * read a model from a model.txt file, or from a file in the binary
+     * format of BinaryModelFormat
+     * @param pathToModel
+     * @return the model
+     * @throws IOException
+     */
+    public static EFMModel load(String pathToModel) throws IOException {
+        if (BinaryModelFormat.isBinaryModel(pathToModel)) {
+            return BinaryModelFormat.load(pathToModel);
+        }
+        Scanner sc = new Scanner(new FileReader(pathToModel));
+        try {
+            String lineMinMax = sc.nextLine();
+            String[] minMax = lineMinMax.split(",");
+            double minTarget = Double.valueOf(minMax[0]);
+            double maxTarget = Double.valueOf(minMax[1]);
+            double intercept = Double.valueOf(sc.nextLine());
+            ArrayList<Double> alWeights = new ArrayList<Double>();
+            ArrayList<Tree> alFeatures = new ArrayList<Tree>();
+            while(sc.hasNextLine()){
+                String sAux = sc.nextLine();
+                sAux = sAux.trim();
+                String[] tokens = sAux.split(" ");
+                double wAux = Double.valueOf(tokens[1]);
+                alWeights.add(wAux);
+
+                String featureStringAux = "";
+                for(int i=3;i<tokens.length;i++){
+                    featureStringAux += tokens[i] + " ";
+                }
+                featureStringAux = featureStringAux.trim();
+                Tree g = TreeGenerator.generateTree(featureStringAux);
+                alFeatures.add(g);
+            }
+            double[] weights = new double[alWeights.size()];
+            for(int j=0;j<weights.length;j++){
+                weights[j] = alWeights.get(j);
+            }
+            return new EFMModel(minTarget, maxTarget, intercept, weights, alFeatures.toArray(new Tree[alFeatures.size()]));
+        } catch (GPException e) {
+            throw new IOException("Error in model " + pathToModel + ": " + e.getMessage());
+        } finally {
+            sc.close();
+        }
+    }
+
+    /**
+     * simplify the model before deploying it: the features are simplified
+     * with TreeSimplifier, features that fold into a constant are moved into
+     * the intercept, and the weights of features that become identical are
+     * added up. Terms with a zero weight are dropped.
+     * @return the simplified model
+     * @throws GPException if a feature contains an unknown function or variable
+     */
+    public EFMModel simplify() throws GPException {
+        double simplifiedIntercept = intercept;
+        ArrayList<Tree> simplifiedFeatures = new ArrayList<Tree>();
+        ArrayList<Double> simplifiedWeights = new ArrayList<Double>();
+        HashMap<String, Integer> featureIndices = new HashMap<String, Integer>();
+        for (int j = 0; j < features.length; j++) {
+            if (weights[j] == 0) {
+                continue;
+            }
+            Tree feature = TreeSimplifier.simplify(features[j]);
+            if (TreeSimplifier.isConstant(feature)) {
+                simplifiedIntercept += weights[j] * TreeSimplifier.getConstantValue(feature);
+                continue;
+            }
+            String key = feature.toPrefixString();
+            Integer k = featureIndices.get(key);
+            if (k == null) {
+                featureIndices.put(key, simplifiedFeatures.size());
+                simplifiedFeatures.add(feature);
+                simplifiedWeights.add(weights[j]);
+            } else {
+                simplifiedWeights.set(k, simplifiedWeights.get(k) + weights[j]);
+            }
+        }
+        int numberOfTerms = 0;
+        for (double w : simplifiedWeights) {
+            if (w != 0) {
+                numberOfTerms++;
+            }
+        }
+        Tree[] someFeatures = new Tree[numberOfTerms];
+        double[] someWeights = new double[numberOfTerms];
+        int t = 0;
+        for (int k = 0; k < simplifiedFeatures.size(); k++) {
+            if (simplifiedWeights.get(k) != 0) {
+                someFeatures[t] = simplifiedFeatures.get(k);
+                someWeights[t] = simplifiedWeights.get(k);
+                t++;
+            }
+        }
+        return new EFMModel(targetMin, targetMax, simplifiedIntercept, someWeights, someFeatures);
+    }
+
+    /**
+     * @return the model in the text format of model.txt
+     */
+    public String toText() {
+        StringBuilder text = new StringBuilder();
+        text.append(targetMin).append(',').append(targetMax).append('\n');
+        text.append(intercept).append('\n');
+        for (int j = 0; j < features.length; j++) {
+            text.append(" + ").append(weights[j]).append(" * ").append(features[j].toPrefixString()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * write the model in the text format of model.txt
+     * @param pathToModel
+     * @throws IOException
+     */
+    public void save(String pathToModel) throws IOException {
+        BufferedWriter out = new BufferedWriter(new FileWriter(pathToModel));
+        try {
+            out.write(toText());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * compute the prediction of the model for a single case. Features that
+     * evaluate to NaN or infinity count as 0 and the prediction is clamped to
+     * the range of the training targets; it is not rounded.
+     * @param row the values of the original features
+     * @return the prediction of the model
+     */
+    public double predict(double[] row) {
+        double prediction = intercept;
+        for (int t = 0; t < terms.length; t++) {
+            double value = terms[t].eval(row);
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                value = 0;
+            }
+            prediction += termWeights[t] * value;
+        }
+        if (prediction < targetMin) prediction = targetMin;
+        if (prediction > targetMax) prediction = targetMax;
+        return prediction;
+    }
+
+    /**
+     * compute the predictions of the model for several cases
+     * @param rows rows[i] holds the values of the original features of case i
+     * @param predictions predictions[i] receives the prediction of case i
+     */
+    public void predict(double[][] rows, double[] predictions) {
+        for (int i = 0; i < rows.length; i++) {
+            predictions[i] = predict(rows[i]);
+        }
+    }
+
+    /**
+     * @return the minimum target value seen in training
+     */
+    public double getTargetMin() {
+        return targetMin;
+    }
+
+    /**
+     * @return the maximum target value seen in training
+     */
+    public double getTargetMax() {
+        return targetMax;
+    }
+
+    /**
+     * @return the intercept of the linear model
+     */
+    public double getIntercept() {
+        return intercept;
+    }
+
+    /**
+     * @return the minimum length of the rows passed to predict: one more
+     * than the largest index of a variable read by a feature
+     */
+    public int getNumberOfVariables() {
+        return numberOfVariables;
+    }
+
+    /**
+     * @return the number of features of the model
+     */
+    public int getNumberOfFeatures() {
+        return features.length;
+    }
+
+    /**
+     * @param index
+     * @return the weight of a feature
+     */
+    public double getWeight(int index) {
+        return weights[index];
+    }
+
+    /**
+     * @param index
+     * @return a copy of the expression tree of a feature
+     */
+    public Tree getFeature(int index) {
+        return (Tree) features[index].copy();
+    }
+}
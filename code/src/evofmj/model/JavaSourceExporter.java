@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.model;
+
+import evofmj.efm.GPException;
+import evofmj.math.ExpressionPool;
+import evofmj.math.Operator;
+import evofmj.math.PostfixProgram;
+
+/**
+ * Exports an EFM model as the source of a self-contained Java class, to embed
+ * the model in a service without depending on evofmj. The features of the
+ * terms with a non-zero weight are merged in an {@link ExpressionPool}, and
+ * each distinct subexpression is computed once, into an array of values, by a
+ * straight line of arithmetic. The subexpressions and the terms are split in
+ * private methods of NODES_PER_METHOD subexpressions and TERMS_PER_METHOD
+ * terms, so that no method of a large model exceeds the bytecode size above
+ * which HotSpot does not compile a method (8000 bytes), nor the 64KB limit of
+ * the class file format. The operators are printed by
+ * {@link Operator#toJavaExpression}, and the terms are accumulated in the
+ * order of the model, so the exported class returns the same predictions as
+ * {@link BatchScorer}, bit for bit.
+ *
+ * @author Ignacio Arnaldo
+ */
+public final class JavaSourceExporter {
+
+    // number of subexpressions computed by a method of the exported class,
+    // the largest subexpressions take about 60 bytes of bytecode
+    private static final int NODES_PER_METHOD = 100;
+
+    // number of terms accumulated by a method of the exported class
+    private static final int TERMS_PER_METHOD = 100;
+
+    private JavaSourceExporter() {
+    }
+
+    /**
+     * Generate the source of a class with a static predict(double[]) method
+     * @param model
+     * @param className name of the class, optionally qualified by a package
+     * @param round whether predictions are rounded to the closest integer
+     * @return the Java source
+     * @throws GPException if a feature contains an unknown function or variable
+     */
+    public static String export(EFMModel model, String className, boolean round) throws GPException {
+        ExpressionPool pool = new ExpressionPool();
+        int numberOfTerms = 0;
+        for (int j = 0; j < model.getNumberOfFeatures(); j++) {
+            if (model.getWeight(j) != 0) {
+                numberOfTerms++;
+            }
+        }
+        int[] termNodes = new int[numberOfTerms];
+        double[] weights = new double[numberOfTerms];
+        int t = 0;
+        for (int j = 0; j < model.getNumberOfFeatures(); j++) {
+            if (model.getWeight(j) != 0) {
+                termNodes[t] = pool.add(model.getFeature(j).getRoot());
+                weights[t] = model.getWeight(j);
+                t++;
+            }
+        }
+
+        String packageName = null;
+        String simpleName = className;
+        int dot = className.lastIndexOf('.');
+        if (dot != -1) {
+            packageName = className.substring(0, dot);
+            simpleName = className.substring(dot + 1);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        if (packageName != null) {
+            sb.append("package ").append(packageName).append(";\n\n");
+        }
+        sb.append("/**\n");
+        sb.append(" * EFM model exported by evofmj, do not edit.\n");
+        sb.append(" * ").append(model.getNumberOfFeatures()).append(" features, ")
+                .append(numberOfTerms).append(" terms, ")
+                .append(pool.size()).append(" distinct subexpressions.\n");
+        sb.append(" */\n");
+        sb.append("public final class ").append(simpleName).append(" {\n\n");
+        sb.append("    /**\n");
+        sb.append("     * number of variables read from each row\n");
+        sb.append("     */\n");
+        sb.append("    public static final int NUMBER_OF_VARIABLES = ").append(model.getNumberOfVariables()).append(";\n\n");
+        sb.append("    private static final double TARGET_MIN = ").append(toJavaLiteral(model.getTargetMin())).append(";\n");
+        sb.append("    private static final double TARGET_MAX = ").append(toJavaLiteral(model.getTargetMax())).append(";\n");
+        sb.append("    private static final double INTERCEPT = ").append(toJavaLiteral(model.getIntercept())).append(";\n\n");
+        sb.append("    private ").append(simpleName).append("() {\n");
+        sb.append("    }\n\n");
+        sb.append("    /**\n");
+        sb.append("     * @param row the values of the original features\n");
+        sb.append("     * @return the prediction of the model\n");
+        sb.append("     */\n");
+        sb.append("    public static double predict(double[] row) {\n");
+        sb.append("        double[] v = new double[").append(pool.size()).append("];\n");
+        for (int first = 0; first < pool.size(); first += NODES_PER_METHOD) {
+            sb.append("        nodes").append(first / NODES_PER_METHOD).append("(row, v);\n");
+        }
+        sb.append("        double prediction = INTERCEPT;\n");
+        for (int first = 0; first < numberOfTerms; first += TERMS_PER_METHOD) {
+            sb.append("        prediction = terms").append(first / TERMS_PER_METHOD).append("(v, prediction);\n");
+        }
+        sb.append("        if (prediction < TARGET_MIN) prediction = TARGET_MIN;\n");
+        sb.append("        if (prediction > TARGET_MAX) prediction = TARGET_MAX;\n");
+        if (round) {
+            sb.append("        prediction = Math.round(prediction);\n");
+        }
+        sb.append("        return prediction;\n");
+        sb.append("    }\n\n");
+        for (int first = 0; first < pool.size(); first += NODES_PER_METHOD) {
+            int last = Math.min(pool.size(), first + NODES_PER_METHOD);
+            sb.append("    // subexpressions ").append(first).append(" to ").append(last - 1).append("\n");
+            sb.append("    private static void nodes").append(first / NODES_PER_METHOD).append("(double[] row, double[] v) {\n");
+            for (int id = first; id < last; id++) {
+                sb.append("        v[").append(id).append("] = ").append(toJavaExpression(pool, id)).append(";\n");
+            }
+            sb.append("    }\n\n");
+        }
+        for (int first = 0; first < numberOfTerms; first += TERMS_PER_METHOD) {
+            int last = Math.min(numberOfTerms, first + TERMS_PER_METHOD);
+            sb.append("    // terms ").append(first).append(" to ").append(last - 1).append("\n");
+            sb.append("    private static double terms").append(first / TERMS_PER_METHOD).append("(double[] v, double prediction) {\n");
+            for (t = first; t < last; t++) {
+                sb.append("        prediction += ").append(toJavaLiteral(weights[t]))
+                        .append(" * finite(v[").append(termNodes[t]).append("]);\n");
+            }
+            sb.append("        return prediction;\n");
+            sb.append("    }\n\n");
+        }
+        sb.append("    // undefined feature values count as 0\n");
+        sb.append("    private static double finite(double value) {\n");
+        sb.append("        return Double.isNaN(value) || Double.isInfinite(value) ? 0 : value;\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    /*
+    * print a node of the DAG in terms of the values of its arguments
+    */
+    private static String toJavaExpression(ExpressionPool pool, int id) {
+        int opcode = pool.getOpcode(id);
+        if (opcode == PostfixProgram.VAR) {
+            return "row[" + pool.getOperand(id) + "]";
+        } else if (opcode == PostfixProgram.CONST) {
+            return toJavaLiteral(pool.getConstant(id));
+        }
+        Operator operator = Operator.fromOpcode(opcode);
+        if (operator.getArity() == 2) {
+            return operator.toJavaExpression("v[" + pool.getArgument1(id) + "]", "v[" + pool.getArgument2(id) + "]");
+        }
+        return operator.toJavaExpression("v[" + pool.getArgument1(id) + "]");
+    }
+
+    /*
+    * print a double so that it is read back to the same value
+    */
+    private static String toJavaLiteral(double value) {
+        if (Double.isNaN(value)) {
+            return "Double.NaN";
+        } else if (value == Double.POSITIVE_INFINITY) {
+            return "Double.POSITIVE_INFINITY";
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            return "Double.NEGATIVE_INFINITY";
+        }
+        String literal = Double.toString(value);
+        return value < 0 ? "(" + literal + ")" : literal;
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ * 
+ * Licensed under the MIT License.
+ * 
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.  
+ *
+ * @author Ignacio Arnaldo
+ * 
+ */
+package evofmj.model;
+
+import evofmj.genotype.TreeNode;
+import evofmj.math.Operator;
+import evofmj.math.PostfixProgram;
+import evofmj.math.Var;
+import evofmj.efm.GPException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * An EFM model compiled at runtime into a tree of composed method handles of
+ * type (double[])double. Every node of every feature becomes a handle that
+ * calls the static apply method of the corresponding evofmj.math operator, so
+ * the protected semantics of Divide, Log and Sqrt are preserved. The feature
+ * terms are then combined exactly as in TestRegressionEFM: features that
+ * evaluate to NaN or infinity count as 0, terms with a zero weight are
+ * dropped, and the prediction is clamped to the range of the training targets
+ * and optionally rounded.
+ * 
+ * The JIT can only inline the whole model when the handle is a constant, so
+ * high-volume callers should keep getMethodHandle() in a static final field
+ * and call invokeExact on it directly.
+ * 
+ * @author Ignacio Arnaldo
+ */
+public final class MethodHandleModel {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType UNARY = MethodType.methodType(double.class, double.class);
+    private static final MethodType BINARY = MethodType.methodType(double.class, double.class, double.class);
+    private static final MethodType PREDICTOR = MethodType.methodType(double.class, double[].class);
+
+    private final MethodHandle handle;
+
+    private MethodHandleModel(MethodHandle aHandle) {
+        handle = aHandle;
+    }
+
+    /**
+     * compile a model into a method handle
+     * @param model
+     * @param round whether predictions are rounded to the closest integer
+     * @return the compiled model
+     * @throws GPException if a feature contains an unknown function or variable
+     */
+    public static MethodHandleModel compile(EFMModel model, boolean round) throws GPException {
+        try {
+            MethodHandle sanitize = LOOKUP.findStatic(MethodHandleModel.class, "sanitize", UNARY);
+            MethodHandle accumulate = LOOKUP.findStatic(MethodHandleModel.class, "accumulate",
+                    MethodType.methodType(double.class, double.class, double.class, double.class));
+            MethodHandle prediction = MethodHandles.dropArguments(
+                    MethodHandles.constant(double.class, model.getIntercept()), 0, double[].class);
+            for (int j = 0; j < model.getNumberOfFeatures(); j++) {
+                double w = model.getWeight(j);
+                if (w == 0) {
+                    continue;
+                }
+                MethodHandle feature = MethodHandles.filterReturnValue(
+                        compileNode(model.getFeature(j).getRoot()), sanitize);
+                // (acc, value) -> acc + w * value
+                MethodHandle term = MethodHandles.insertArguments(accumulate, 1, w);
+                prediction = MethodHandles.permuteArguments(
+                        MethodHandles.filterArguments(term, 0, prediction, feature), PREDICTOR, 0, 0);
+            }
+            MethodHandle clamp = LOOKUP.findStatic(MethodHandleModel.class, "clamp",
+                    MethodType.methodType(double.class, double.class, double.class, double.class));
+            prediction = MethodHandles.filterReturnValue(prediction,
+                    MethodHandles.insertArguments(clamp, 1, model.getTargetMin(), model.getTargetMax()));
+            if (round) {
+                prediction = MethodHandles.filterReturnValue(prediction,
+                        LOOKUP.findStatic(MethodHandleModel.class, "round", UNARY));
+            }
+            return new MethodHandleModel(prediction);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+    * compile a subtree into a handle of type (double[])double
+    */
+    private static MethodHandle compileNode(TreeNode node) throws GPException, NoSuchMethodException, IllegalAccessException {
+        int opcode = PostfixProgram.getOpcodeFromLabel(node.label);
+        if (opcode == -1) {
+            throw new GPException("unknown function or variable " + node.label);
+        }
+        if (opcode == PostfixProgram.VAR) {
+            MethodHandle getter = MethodHandles.arrayElementGetter(double[].class);
+            return MethodHandles.insertArguments(getter, 1, Var.getIndexFromLabel(node.label));
+        }
+        if (opcode == PostfixProgram.CONST) {
+            return MethodHandles.dropArguments(
+                    MethodHandles.constant(double.class, Double.parseDouble(node.label)), 0, double[].class);
+        }
+        Operator operator = Operator.fromOpcode(opcode);
+        switch (node.children.size()) {
+            case 1:
+                return MethodHandles.filterReturnValue(compileNode(node.children.get(0)),
+                        LOOKUP.findVirtual(Operator.class, "apply", UNARY).bindTo(operator));
+            case 2:
+                MethodHandle op = MethodHandles.filterArguments(
+                        LOOKUP.findVirtual(Operator.class, "apply", BINARY).bindTo(operator), 0,
+                        compileNode(node.children.get(0)), compileNode(node.children.get(1)));
+                return MethodHandles.permuteArguments(op, PREDICTOR, 0, 0);
+            default:
+                throw new GPException("unsupported arity " + node.children.size() + " for " + node.label);
+        }
+    }
+
+    /**
+     * @param row the values of the original features
+     * @return the prediction of the model
+     */
+    public double predict(double[] row) {
+        try {
+            return (double) handle.invokeExact(row);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the compiled model, a handle of type (double[])double
+     */
+    public MethodHandle getMethodHandle() {
+        return handle;
+    }
+
+    private static double sanitize(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return 0;
+        }
+        return value;
+    }
+
+    private static double accumulate(double acc, double weight, double value) {
+        return acc + weight * value;
+    }
+
+    private static double clamp(double prediction, double min, double max) {
+        if (prediction < min) prediction = min;
+        if (prediction > max) prediction = max;
+        return prediction;
+    }
+
+    private static double round(double prediction) {
+        return Math.round(prediction);
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ * 
+ * Licensed under the MIT License.
+ * 
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.  
+ *
+ * @author Ignacio Arnaldo
+ * 
+ */
+package evofmj.serve;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the latencies of the most recent requests in a ring buffer and
+ * reports their percentiles.
+ * 
+ * @author Ignacio Arnaldo
+ */
+class LatencyStats {
+
+    // latencies of the most recent requests, in nanoseconds
+    private final long[] samples;
+
+    // total number of recorded requests
+    private long count;
+
+    /**
+     * @param numberOfSamples number of recent requests kept for the percentiles
+     */
+    LatencyStats(int numberOfSamples) {
+        samples = new long[numberOfSamples];
+    }
+
+    /**
+     * record the latency of a request
+     * @param nanos
+     */
+    synchronized void record(long nanos) {
+        samples[(int) (count % samples.length)] = nanos;
+        count++;
+    }
+
+    /**
+     * @return total number of recorded requests
+     */
+    synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @param percentiles values in [0,100]
+     * @return the latencies in nanoseconds at the given percentiles of the
+     * recent requests, 0 if no request was recorded
+     */
+    synchronized long[] getPercentiles(double... percentiles) {
+        int n = (int) Math.min(count, samples.length);
+        long[] sorted = Arrays.copyOf(samples, n);
+        Arrays.sort(sorted);
+        long[] values = new long[percentiles.length];
+        for (int k = 0; k < percentiles.length; k++) {
+            if (n > 0) {
+                int rank = (int) Math.ceil(percentiles[k] / 100 * n) - 1;
+                values[k] = sorted[Math.max(0, Math.min(n - 1, rank))];
+            }
+        }
+        return values;
+    }
+}
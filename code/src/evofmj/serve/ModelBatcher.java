@@ -0,0 +1,284 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ * 
+ * Licensed under the MIT License.
+ * 
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.  
+ *
+ * @author Ignacio Arnaldo
+ * 
+ */
+package evofmj.serve;
+
+import evofmj.efm.GPException;
+import evofmj.model.BatchScorer;
+import evofmj.model.EFMModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Serves the predictions of one model file. Requests are queued and scored by
+ * a single thread that owns the BatchScorer of the model: whenever it wakes
+ * up, it drains every queued request, up to BLOCK_SIZE rows, and scores them
+ * together. Under light load batches hold a single request and add no delay;
+ * as the load grows, so do the batches.
+ * 
+ * The model is reloaded when the modification time of its file changes and
+ * swapped atomically: batches that already started finish with the previous
+ * model and the following ones use the new one, so no request is dropped.
+ * 
+ * @author Ignacio Arnaldo
+ */
+class ModelBatcher implements Runnable {
+
+    /*
+    * a loaded model, its scorer and the modification time of its file
+    */
+    private static class LoadedModel {
+        final EFMModel model;
+        final BatchScorer scorer;
+        final long lastModified;
+
+        LoadedModel(EFMModel aModel, BatchScorer aScorer, long aLastModified) {
+            model = aModel;
+            scorer = aScorer;
+            lastModified = aLastModified;
+        }
+    }
+
+    /**
+     * rows submitted by a request and their predictions
+     */
+    static class Request {
+        final double[][] rows;
+        final double[] predictions;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile String error;
+        private volatile boolean failed;
+
+        Request(double[][] someRows) {
+            rows = someRows;
+            predictions = new double[someRows.length];
+        }
+
+        /**
+         * wait until the request is scored
+         * @param timeout
+         * @param unit
+         * @return whether the request was completed before the timeout
+         * @throws InterruptedException
+         */
+        boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+            return done.await(timeout, unit);
+        }
+
+        /**
+         * @return null if the predictions are ready, the error message otherwise
+         */
+        String getError() {
+            return error;
+        }
+
+        /**
+         * @return whether the request could not be scored because of an
+         *         error of the server rather than of the request
+         */
+        boolean isFailed() {
+            return failed;
+        }
+
+        boolean isComplete() {
+            return done.getCount() == 0;
+        }
+
+        void complete(String anError) {
+            error = anError;
+            done.countDown();
+        }
+
+        void fail(String anError) {
+            failed = true;
+            complete(anError);
+        }
+    }
+
+    private final String path;
+    private final AtomicReference<LoadedModel> current;
+    private final LinkedBlockingQueue<Request> queue;
+    private volatile boolean running;
+    private int numberOfReloads;
+
+    // rows of the current batch stored by columns, and their predictions
+    private double[][] columns;
+    private double[] predictions;
+
+    /**
+     * load a model
+     * @param aPath path to a model.txt file
+     * @throws IOException
+     */
+    ModelBatcher(String aPath) throws IOException {
+        path = aPath;
+        current = new AtomicReference<LoadedModel>(load());
+        queue = new LinkedBlockingQueue<Request>();
+        running = true;
+        columns = new double[0][];
+        predictions = new double[BatchScorer.BLOCK_SIZE];
+    }
+
+    private LoadedModel load() throws IOException {
+        long lastModified = new File(path).lastModified();
+        try {
+            EFMModel model = EFMModel.load(path).simplify();
+            return new LoadedModel(model, new BatchScorer(model, false), lastModified);
+        } catch (GPException e) {
+            throw new IOException("Error in model " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * reload the model if its file was modified since it was last loaded;
+     * the previous model is kept if the new file cannot be read
+     */
+    void checkForUpdate() {
+        long lastModified = new File(path).lastModified();
+        if (lastModified == 0 || lastModified == current.get().lastModified) {
+            return;
+        }
+        try {
+            current.set(load());
+            synchronized (this) {
+                numberOfReloads++;
+            }
+        } catch (IOException e) {
+            System.err.println("Error reloading " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the path of the model file
+     */
+    String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the number of times the model was swapped
+     */
+    synchronized int getNumberOfReloads() {
+        return numberOfReloads;
+    }
+
+    /**
+     * queue a request to be scored
+     * @param request
+     */
+    void submit(Request request) {
+        queue.add(request);
+    }
+
+    /**
+     * stop the batching thread once the queued requests are scored
+     */
+    void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        ArrayList<Request> batch = new ArrayList<Request>();
+        try {
+            while (running || !queue.isEmpty()) {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                int numberOfRows = first.rows.length;
+                Request next;
+                while (numberOfRows < BatchScorer.BLOCK_SIZE && (next = queue.poll()) != null) {
+                    batch.add(next);
+                    numberOfRows += next.rows.length;
+                }
+                try {
+                    scoreBatch(batch, numberOfRows);
+                } catch (Throwable e) {
+                    // fail the batch but keep serving the following requests
+                    System.err.println("Error scoring " + path + ": " + e);
+                    for (Request request : batch) {
+                        if (!request.isComplete()) {
+                            request.fail("error scoring the request: " + e);
+                        }
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+    * score the rows of a batch of requests at once
+    */
+    private void scoreBatch(ArrayList<Request> batch, int numberOfRows) {
+        LoadedModel loaded = current.get();
+        int numberOfVariables = loaded.model.getNumberOfVariables();
+        if (columns.length < numberOfVariables) {
+            columns = new double[numberOfVariables][];
+        }
+        for (int j = 0; j < numberOfVariables; j++) {
+            if (columns[j] == null || columns[j].length < numberOfRows) {
+                columns[j] = new double[Math.max(numberOfRows, BatchScorer.BLOCK_SIZE)];
+            }
+        }
+        if (predictions.length < numberOfRows) {
+            predictions = new double[numberOfRows];
+        }
+        int n = 0;
+        for (Request request : batch) {
+            if (!hasValidRows(request, numberOfVariables)) {
+                request.complete("expected at least " + numberOfVariables + " values per row");
+                continue;
+            }
+            for (double[] row : request.rows) {
+                for (int j = 0; j < numberOfVariables; j++) {
+                    columns[j][n] = row[j];
+                }
+                n++;
+            }
+        }
+        loaded.scorer.predict(columns, predictions, 0, n);
+        n = 0;
+        for (Request request : batch) {
+            if (!request.isComplete()) {
+                System.arraycopy(predictions, n, request.predictions, 0, request.rows.length);
+                n += request.rows.length;
+                request.complete(null);
+            }
+        }
+    }
+
+    private boolean hasValidRows(Request request, int numberOfVariables) {
+        for (double[] row : request.rows) {
+            if (row.length < numberOfVariables) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ * 
+ * Licensed under the MIT License.
+ * 
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.  
+ *
+ * @author Ignacio Arnaldo
+ * 
+ */
+package evofmj.serve;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP server scoring EFM models on the loopback interface.
+ * 
+ * POST /predict?model=k scores the rows of the request body with the k-th
+ * model (0 by default). The body holds one case per line, given as the comma
+ * separated values of the original features, and the response holds one
+ * prediction per line. Requests are handled by a fixed pool of threads and
+ * micro-batched per model by a {@link ModelBatcher}. Requests that fail to be
+ * scored, or that are not scored within REQUEST_TIMEOUT_MS, get a 503 answer.
+ * 
+ * GET /stats reports the number of requests, the p50 and p99 latencies of
+ * the recent requests and the number of times each model was reloaded.
+ * 
+ * Model files are checked for modifications every second and hot-swapped.
+ * 
+ * @author Ignacio Arnaldo
+ */
+public class ScoringServer {
+
+    // interval between two checks of the model files
+    private static final long RELOAD_PERIOD_MS = 1000;
+
+    // longest wait for the predictions of a request before answering 503
+    private static final long REQUEST_TIMEOUT_MS = 30000;
+
+    // number of recent requests used to compute the latency percentiles
+    private static final int LATENCY_SAMPLES = 10000;
+
+    private final ModelBatcher[] batchers;
+    private final LatencyStats latencies;
+    private final HttpServer server;
+    private final ExecutorService requestExecutor;
+    private final ScheduledExecutorService reloadExecutor;
+
+    /**
+     * load the models and bind the server to a local port
+     * @param port
+     * @param modelPaths paths to model.txt files
+     * @param numberOfThreads number of threads handling requests
+     * @throws IOException
+     */
+    public ScoringServer(int port, String[] modelPaths, int numberOfThreads) throws IOException {
+        batchers = new ModelBatcher[modelPaths.length];
+        for (int k = 0; k < modelPaths.length; k++) {
+            batchers[k] = new ModelBatcher(modelPaths[k]);
+        }
+        latencies = new LatencyStats(LATENCY_SAMPLES);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/predict", new PredictHandler());
+        server.createContext("/stats", new StatsHandler());
+        requestExecutor = Executors.newFixedThreadPool(numberOfThreads);
+        server.setExecutor(requestExecutor);
+        reloadExecutor = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    /**
+     * start the batching threads, the model reloading and the server
+     */
+    public void start() {
+        for (ModelBatcher batcher : batchers) {
+            Thread t = new Thread(batcher, "efm-batcher-" + batcher.getPath());
+            t.setDaemon(true);
+            t.start();
+        }
+        reloadExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (ModelBatcher batcher : batchers) {
+                    batcher.checkForUpdate();
+                }
+            }
+        }, RELOAD_PERIOD_MS, RELOAD_PERIOD_MS, TimeUnit.MILLISECONDS);
+        server.start();
+    }
+
+    /**
+     * stop accepting requests and release the threads of the server
+     */
+    public void stop() {
+        server.stop(1);
+        reloadExecutor.shutdown();
+        requestExecutor.shutdown();
+        for (ModelBatcher batcher : batchers) {
+            batcher.stop();
+        }
+    }
+
+    /**
+     * @return the address the server is bound to
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /*
+    * parse the rows of a request body
+    */
+    private static double[][] readRows(HttpExchange exchange) throws IOException {
+        BufferedReader f = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), Charset.forName("UTF-8")));
+        ArrayList<double[]> rows = new ArrayList<double[]>();
+        String line;
+        while ((line = f.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] token = line.split(",");
+            double[] row = new double[token.length];
+            for (int i = 0; i < token.length; i++) {
+                row[i] = Double.valueOf(token[i].trim());
+            }
+            rows.add(row);
+        }
+        f.close();
+        return rows.toArray(new double[rows.size()][]);
+    }
+
+    private static int getModelIndex(URI uri) {
+        String query = uri.getQuery();
+        if (query == null) {
+            return 0;
+        }
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith("model=")) {
+                return Integer.valueOf(parameter.substring("model=".length()));
+            }
+        }
+        return 0;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(Charset.forName("UTF-8"));
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(bytes);
+        os.close();
+    }
+
+    private class PredictHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            long start = System.nanoTime();
+            if (!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, 405, "use POST\n");
+                return;
+            }
+            int k;
+            double[][] rows;
+            try {
+                k = getModelIndex(exchange.getRequestURI());
+                rows = readRows(exchange);
+            } catch (NumberFormatException e) {
+                respond(exchange, 400, "malformed request: " + e.getMessage() + "\n");
+                return;
+            }
+            if (k < 0 || k >= batchers.length) {
+                respond(exchange, 404, "unknown model " + k + "\n");
+                return;
+            }
+            ModelBatcher.Request request = new ModelBatcher.Request(rows);
+            String error;
+            if (rows.length == 0) {
+                error = null;
+            } else {
+                batchers[k].submit(request);
+                try {
+                    if (!request.await(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                        respond(exchange, 503, "timed out\n");
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    respond(exchange, 503, "interrupted\n");
+                    return;
+                }
+                error = request.getError();
+                if (request.isFailed()) {
+                    respond(exchange, 503, error + "\n");
+                    return;
+                }
+            }
+            if (error != null) {
+                respond(exchange, 400, error + "\n");
+                return;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (double prediction : request.predictions) {
+                sb.append(prediction).append('\n');
+            }
+            respond(exchange, 200, sb.toString());
+            latencies.record(System.nanoTime() - start);
+        }
+    }
+
+    private class StatsHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            long[] percentiles = latencies.getPercentiles(50, 99);
+            StringBuilder sb = new StringBuilder();
+            sb.append("requests: ").append(latencies.getCount()).append('\n');
+            sb.append("p50_us: ").append(percentiles[0] / 1000.0).append('\n');
+            sb.append("p99_us: ").append(percentiles[1] / 1000.0).append('\n');
+            for (int k = 0; k < batchers.length; k++) {
+                sb.append("model ").append(k).append(": ").append(batchers[k].getPath());
+                sb.append(", reloads: ").append(batchers[k].getNumberOfReloads()).append('\n');
+            }
+            respond(exchange, 200, sb.toString());
+        }
+    }
+}
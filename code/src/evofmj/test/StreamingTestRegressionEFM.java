@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ * 
+ * Licensed under the MIT License.
+ * 
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.  
+ *
+ * @author Ignacio Arnaldo
+ * 
+ */
+package evofmj.test;
+
+import evofmj.efm.GPException;
+import evofmj.evaluation.AsyncInputStream;
+import evofmj.evaluation.CSVStreamReader;
+import evofmj.evaluation.InputCodecs;
+import evofmj.model.BatchScorer;
+import evofmj.model.EFMModel;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+
+/**
+ * Tests models obtained with the EFM method without loading the test data in
+ * memory. The test CSV is read in chunks of CHUNK_SIZE rows; each chunk is
+ * scored with a BatchScorer, its predictions are appended to an output file,
+ * one per line, and its errors are summed and added to running MSE and MAE
+ * sums. Memory use only depends on the chunk size, so test files larger than
+ * the heap can be scored. Compressed test files are decoded by their codec, and the file
+ * is read on a separate thread while it is scored. Since the chunks are the
+ * chunks of TestRegressionEFM and their errors are added in the same order,
+ * the reported errors are identical to those of TestRegressionEFM.
+ * 
+ * @author Ignacio Arnaldo
+ */
+public class StreamingTestRegressionEFM {
+
+    /**
+     * number of test cases read and scored at once
+     */
+    public static final int CHUNK_SIZE = 16 * BatchScorer.BLOCK_SIZE;
+
+    private final String pathToTestData;
+    private final String pathToModel;
+    private final String pathToPredictions;
+    private final BatchScorer scorer;
+
+    // running sums of the errors and number of scored test cases
+    private double sqDiff, absDiff;
+    private long numberOfTestCases;
+
+    /**
+     * Test models obtained with the EFM method, streaming the test data
+     * @param aPathToTestData
+     * @param aPathToModel
+     * @param aPathToPredictions file where the predictions are written
+     * @param aRound
+     * @throws IOException
+     */
+    public StreamingTestRegressionEFM(String aPathToTestData, String aPathToModel, String aPathToPredictions, boolean aRound) throws IOException {
+        pathToTestData = aPathToTestData;
+        pathToModel = aPathToModel;
+        pathToPredictions = aPathToPredictions;
+        try {
+            scorer = new BatchScorer(EFMModel.load(pathToModel).simplify(), aRound);
+        } catch (GPException e) {
+            throw new IOException("Error in model " + pathToModel + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * eval an EFM model, writing its predictions
+     * @throws IOException if the files can't be read or written, or a row of
+     *         the test data does not have the number of columns of the first row
+     */
+    public void evalModel() throws IOException {
+        CSVStreamReader in = new CSVStreamReader(
+                new AsyncInputStream(InputCodecs.open(pathToTestData), "read " + pathToTestData), pathToTestData);
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(pathToPredictions), Charset.defaultCharset()));
+        sqDiff = 0;
+        absDiff = 0;
+        numberOfTestCases = 0;
+        try {
+            double[][] columns = new double[in.getNumberOfColumns() - 1][CHUNK_SIZE];
+            double[] targets = new double[CHUNK_SIZE];
+            double[] predictions = new double[CHUNK_SIZE];
+            int chunkLength;
+            while ((chunkLength = in.read(columns, targets, 0, CHUNK_SIZE)) > 0) {
+                scoreChunk(columns, targets, predictions, chunkLength, out);
+            }
+            System.out.println("MSE: " + (sqDiff / numberOfTestCases));
+            System.out.println("MAE: " + (absDiff / numberOfTestCases));
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /*
+    * score a chunk of test cases and write its predictions; the chunk
+    * accumulates its own errors, which are then added to the running errors,
+    * as the chunks of TestRegressionEFM
+    */
+    private void scoreChunk(double[][] columns, double[] targets, double[] predictions, int length, BufferedWriter out) throws IOException {
+        scorer.predict(columns, predictions, 0, length);
+        double chunkSqDiff = 0;
+        double chunkAbsDiff = 0;
+        for (int i = 0; i < length; i++) {
+            chunkSqDiff += Math.pow(targets[i] - predictions[i], 2);
+            chunkAbsDiff += Math.abs(targets[i] - predictions[i]);
+        }
+        sqDiff += chunkSqDiff;
+        absDiff += chunkAbsDiff;
+        writePredictions(out, predictions, length);
+        numberOfTestCases += length;
+    }
+
+    private void writePredictions(BufferedWriter out, double[] predictions, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            out.write(Double.toString(predictions[i]));
+            out.newLine();
+        }
+    }
+}
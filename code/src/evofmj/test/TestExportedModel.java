@@ -0,0 +1,383 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.test;
+
+import evofmj.efm.GPException;
+import evofmj.evaluation.java.EFMScaledData;
+import evofmj.genotype.Tree;
+import evofmj.genotype.TreeGenerator;
+import evofmj.math.Operator;
+import evofmj.model.BatchScorer;
+import evofmj.model.EFMModel;
+import evofmj.model.JavaSourceExporter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Verifies a model exported as Java source. The source is compiled in memory,
+ * and the predictions of the compiled class on a test set are compared with
+ * the predictions of {@link TestRegressionEFM}, which must be identical. No
+ * method of the compiled class may exceed HUGE_METHOD_LIMIT bytes of
+ * bytecode, above which HotSpot would interpret it; forLargeModel exports a
+ * random model far too large for a single method, to check that the exporter
+ * splits large models.
+ *
+ * @author Ignacio Arnaldo
+ */
+public class TestExportedModel {
+
+    /**
+     * largest bytecode size of a method that HotSpot compiles, the default
+     * value of -XX:HugeMethodLimit
+     */
+    public static final int HUGE_METHOD_LIMIT = 8000;
+
+    // largest number of operators from the root to a leaf of the features of the large model
+    private static final int LARGE_MODEL_DEPTH = 4;
+
+    private EFMScaledData testData;
+    private BatchScorer scorer;
+    private Method predict;
+
+    /**
+     * Compile the exported source of a model
+     * @param aPathToTestData
+     * @param aPathToModel
+     * @param className name of the exported class
+     * @param source Java source of the exported class
+     * @param aRound whether the exported class rounds its predictions
+     * @throws IOException if the model can't be read or the source doesn't compile
+     */
+    public TestExportedModel(String aPathToTestData, String aPathToModel, String className, String source, boolean aRound) throws IOException {
+        this(new EFMScaledData(aPathToTestData), loadModel(aPathToModel), className, source, aRound);
+    }
+
+    /**
+     * Compile the exported source of a model, and check that none of its
+     * methods exceeds HUGE_METHOD_LIMIT bytes of bytecode
+     * @param aTestData
+     * @param aModel
+     * @param className name of the exported class
+     * @param source Java source of the exported class
+     * @param aRound whether the exported class rounds its predictions
+     * @throws IOException if the source doesn't compile, or a method is too large
+     */
+    public TestExportedModel(EFMScaledData aTestData, EFMModel aModel, String className, String source, boolean aRound) throws IOException {
+        testData = aTestData;
+        try {
+            scorer = new BatchScorer(aModel, aRound);
+        } catch (GPException e) {
+            throw new IOException("Error in model: " + e.getMessage());
+        }
+        try {
+            predict = compile(className, source).getMethod("predict", double[].class);
+        } catch (NoSuchMethodException e) {
+            throw new IOException("Exported class " + className + " has no predict(double[]) method");
+        }
+    }
+
+    /**
+     * Export and compile a random model of numberOfFeatures features over
+     * the variables of the test data, larger than what fits in a single
+     * method, to check that the exporter splits it
+     * @param aTestData
+     * @param numberOfFeatures
+     * @param aRound whether the exported class rounds its predictions
+     * @return the test of the exported model
+     * @throws IOException if the source doesn't compile, or a method is too large
+     */
+    public static TestExportedModel forLargeModel(EFMScaledData aTestData, int numberOfFeatures, boolean aRound) throws IOException {
+        Random random = new Random(1);
+        Tree[] features = new Tree[numberOfFeatures];
+        double[] weights = new double[numberOfFeatures];
+        for (int j = 0; j < numberOfFeatures; j++) {
+            features[j] = TreeGenerator.generateTree(randomExpression(random, aTestData.getNumberOfOriginalFeatures(), LARGE_MODEL_DEPTH));
+            weights[j] = random.nextGaussian() / numberOfFeatures;
+        }
+        try {
+            EFMModel model = new EFMModel(aTestData.getTargetMin(), aTestData.getTargetMax(), 0, weights, features);
+            String className = "LargeEFMModel";
+            return new TestExportedModel(aTestData, model, className, JavaSourceExporter.export(model, className, aRound), aRound);
+        } catch (GPException e) {
+            throw new IOException("Error in the large model: " + e.getMessage());
+        }
+    }
+
+    private static EFMModel loadModel(String aPathToModel) throws IOException {
+        try {
+            return EFMModel.load(aPathToModel).simplify();
+        } catch (GPException e) {
+            throw new IOException("Error in model " + aPathToModel + ": " + e.getMessage());
+        }
+    }
+
+    /*
+    * S-expression of a random tree of at most depth operators
+    */
+    private static String randomExpression(Random random, int numberOfVariables, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            return "X" + (random.nextInt(numberOfVariables) + 1);
+        }
+        Operator[] operators = Operator.values();
+        Operator operator = operators[random.nextInt(operators.length)];
+        StringBuilder sb = new StringBuilder("(").append(operator.getLabel());
+        for (int k = 0; k < operator.getArity(); k++) {
+            sb.append(' ').append(randomExpression(random, numberOfVariables, depth - 1));
+        }
+        return sb.append(')').toString();
+    }
+
+    /*
+    * compile a class in memory and load it in its own class loader
+    */
+    private static Class<?> compile(String className, String source) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IOException("No Java compiler available, run with a JDK to verify exported models");
+        }
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        MemoryFileManager fileManager = new MemoryFileManager(standardFileManager);
+        JavaFileObject sourceFile = new SourceFile(className, source);
+        boolean compiled = compiler.getTask(null, fileManager, diagnostics, null, null, Arrays.asList(sourceFile)).call();
+        fileManager.close();
+        if (!compiled) {
+            StringBuilder sb = new StringBuilder("Exported source does not compile:");
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                sb.append("\n  line ").append(d.getLineNumber()).append(": ").append(d.getMessage(null));
+            }
+            throw new IOException(sb.toString());
+        }
+        final HashMap<String, byte[]> classes = fileManager.classes;
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            checkMethodSizes(entry.getKey(), entry.getValue());
+        }
+        ClassLoader loader = new ClassLoader(TestExportedModel.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String name) throws ClassNotFoundException {
+                byte[] bytes = classes.get(name);
+                if (bytes == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        };
+        try {
+            return loader.loadClass(className);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Exported source does not define class " + className);
+        }
+    }
+
+    /*
+    * read the methods of a class file and check the size of their bytecode
+    */
+    private static void checkMethodSizes(String className, byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        in.skipBytes(8);
+        String[] utf8 = new String[in.readUnsignedShort()];
+        for (int i = 1; i < utf8.length; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1:
+                    utf8[i] = in.readUTF();
+                    break;
+                case 5:
+                case 6:
+                    // long and double constants take two entries
+                    in.skipBytes(8);
+                    i++;
+                    break;
+                case 3:
+                case 4:
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                case 17:
+                case 18:
+                    in.skipBytes(4);
+                    break;
+                case 15:
+                    in.skipBytes(3);
+                    break;
+                case 7:
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    in.skipBytes(2);
+                    break;
+                default:
+                    throw new IOException("Exported class " + className + ": unknown constant tag " + tag);
+            }
+        }
+        in.skipBytes(6);
+        in.skipBytes(2 * in.readUnsignedShort());
+        int numberOfFields = in.readUnsignedShort();
+        for (int f = 0; f < numberOfFields; f++) {
+            in.skipBytes(6);
+            skipAttributes(in);
+        }
+        int numberOfMethods = in.readUnsignedShort();
+        for (int m = 0; m < numberOfMethods; m++) {
+            in.skipBytes(2);
+            String methodName = utf8[in.readUnsignedShort()];
+            in.skipBytes(2);
+            int numberOfAttributes = in.readUnsignedShort();
+            for (int a = 0; a < numberOfAttributes; a++) {
+                String attributeName = utf8[in.readUnsignedShort()];
+                int length = in.readInt();
+                if (attributeName.equals("Code")) {
+                    in.skipBytes(4);
+                    int codeLength = in.readInt();
+                    if (codeLength > HUGE_METHOD_LIMIT) {
+                        throw new IOException("Exported method " + className + "." + methodName + " has " + codeLength
+                                + " bytes of bytecode, more than the " + HUGE_METHOD_LIMIT + " bytes compiled by HotSpot");
+                    }
+                    length -= 8;
+                }
+                in.skipBytes(length);
+            }
+        }
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        int numberOfAttributes = in.readUnsignedShort();
+        for (int a = 0; a < numberOfAttributes; a++) {
+            in.skipBytes(2);
+            in.skipBytes(in.readInt());
+        }
+    }
+
+    /**
+     * @see eval the exported model and compare it with the EFM model
+     * @return the number of test cases whose predictions differ
+     */
+    public int evalModel() {
+        int n = testData.getNumberOfFitnessCases();
+        double[][] inputColumnsAux = testData.getColumns();
+        double[] targets = testData.getTargetValues();
+        double[] expected = new double[BatchScorer.BLOCK_SIZE];
+        double[] row = new double[testData.getNumberOfOriginalFeatures()];
+        double sqDiff = 0;
+        double absDiff = 0;
+        int mismatches = 0;
+        for (int from = 0; from < n; from += BatchScorer.BLOCK_SIZE) {
+            int to = Math.min(n, from + BatchScorer.BLOCK_SIZE);
+            scorer.predict(inputColumnsAux, expected, from, to);
+            for (int i = from; i < to; i++) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = inputColumnsAux[j][i];
+                }
+                double prediction = invokePredict(row);
+                if (Double.doubleToLongBits(prediction) != Double.doubleToLongBits(expected[i - from])) {
+                    mismatches++;
+                }
+                sqDiff += Math.pow(targets[i] - prediction, 2);
+                absDiff += Math.abs(targets[i] - prediction);
+            }
+        }
+        sqDiff = sqDiff / n;
+        absDiff= absDiff / n;
+        System.out.println("MSE: " + sqDiff);
+        System.out.println("MAE: " + absDiff);
+        System.out.println("MISMATCHES: " + mismatches + " of " + n);
+        return mismatches;
+    }
+
+    /*
+    * call the static predict method of the exported class
+    */
+    private double invokePredict(double[] row) {
+        try {
+            return (Double) predict.invoke(null, (Object) row);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /*
+    * source held in a string
+    */
+    private static class SourceFile extends SimpleJavaFileObject {
+
+        private final String source;
+
+        SourceFile(String className, String aSource) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            source = aSource;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    /*
+    * keeps the compiled classes in memory
+    */
+    private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+        final HashMap<String, byte[]> classes = new HashMap<String, byte[]>();
+
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, final String className, JavaFileObject.Kind kind, FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    return new ByteArrayOutputStream() {
+                        @Override
+                        public void close() throws IOException {
+                            super.close();
+                            classes.put(className, toByteArray());
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
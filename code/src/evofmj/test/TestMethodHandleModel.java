@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2014 ALFA Group
+ *
+ * Licensed under the MIT License.
+ *
+ * See the "LICENSE" file for a copy of the license.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ *
+ * @author Ignacio Arnaldo
+ *
+ */
+package evofmj.test;
+
+import evofmj.efm.GPException;
+import evofmj.evaluation.Dataset;
+import evofmj.model.BatchScorer;
+import evofmj.model.EFMModel;
+import evofmj.model.MethodHandleModel;
+import java.io.IOException;
+
+/**
+ * Tests a model compiled into method handles. The test set is scored row by
+ * row with {@link MethodHandleModel}, and its predictions are compared with
+ * the predictions of {@link BatchScorer}, which must be identical.
+ *
+ * @author Ignacio Arnaldo
+ */
+public class TestMethodHandleModel {
+
+    private Dataset testData;
+    private String pathToModel;
+    private BatchScorer scorer;
+    private MethodHandleModel compiledModel;
+
+    /**
+     * Compile a model into method handles
+     * @param aTestData
+     * @param aPathToModel
+     * @param aRound whether predictions are rounded to the closest integer
+     * @throws IOException if the model can't be read
+     */
+    public TestMethodHandleModel(Dataset aTestData, String aPathToModel, boolean aRound) throws IOException {
+        testData = aTestData;
+        pathToModel = aPathToModel;
+        try {
+            EFMModel model = EFMModel.load(pathToModel).simplify();
+            scorer = new BatchScorer(model, aRound);
+            compiledModel = MethodHandleModel.compile(model, aRound);
+        } catch (GPException e) {
+            throw new IOException("Error in model " + pathToModel + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @see eval the compiled model and compare it with the batch scorer
+     * @return the number of test cases whose predictions differ
+     */
+    public int evalModel() {
+        int n = testData.getNumberOfRows();
+        double[][] inputColumnsAux = testData.getColumns();
+        double[] targets = testData.getTargetValues();
+        double[] expected = new double[BatchScorer.BLOCK_SIZE];
+        double[] row = new double[testData.getNumberOfFeatures()];
+        double sqDiff = 0;
+        double absDiff = 0;
+        int mismatches = 0;
+        for (int from = 0; from < n; from += BatchScorer.BLOCK_SIZE) {
+            int to = Math.min(n, from + BatchScorer.BLOCK_SIZE);
+            scorer.predict(inputColumnsAux, expected, from, to);
+            for (int i = from; i < to; i++) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] = inputColumnsAux[j][i];
+                }
+                double prediction = compiledModel.predict(row);
+                if (Double.doubleToLongBits(prediction) != Double.doubleToLongBits(expected[i - from])) {
+                    mismatches++;
+                }
+                sqDiff += Math.pow(targets[i] - prediction, 2);
+                absDiff += Math.abs(targets[i] - prediction);
+            }
+        }
+        sqDiff = sqDiff / n;
+        absDiff= absDiff / n;
+        System.out.println("MSE: " + sqDiff);
+        System.out.println("MAE: " + absDiff);
+        System.out.println("MISMATCHES: " + mismatches + " of " + n);
+        return mismatches;
+    }
+}
@@ -19,15 +19,14 @@
  */
 package evofmj.test;
 
+import evofmj.efm.GPException;
+import evofmj.evaluation.Dataset;
 import evofmj.evaluation.java.EFMScaledData;
-import evofmj.genotype.Tree;
-import evofmj.genotype.TreeGenerator;
-import evofmj.math.Function;
-import java.io.FileReader;
+import evofmj.model.BatchScorer;
+import evofmj.model.EFMModel;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Implements fitness evaluation for symbolic regression.
@@ -36,18 +35,23 @@ import java.util.Scanner;
  */
 public class TestRegressionEFM {
     
-    private String pathToTestData;
     private EFMScaledData testData;    
     private String pathToModel;
-    ArrayList<Tree> alFeatures; 
-    ArrayList<Double> alWeights;
-    double intercept, minTarget,maxTarget;
+    private EFMModel model;
+    private BatchScorer scorer;
     private boolean round;
+
+    /**
+     * number of test cases scored by each task of the parallel mode; the
+     * chunks do not depend on the number of threads, so neither does the
+     * reported error
+     */
+    public static final int CHUNK_SIZE = 16 * BatchScorer.BLOCK_SIZE;
     
     /**
      * Test models obtained with the EFM method
-     * Complex features are mapped to expression trees, evaluated via the 
-     * standard inorder parsing used in tree-based Genetic Programming
+     * Complex features are mapped to expression trees, which are evaluated
+     * over blocks of test cases with whole-column operator kernels
      * @param aPathToTestData
      * @param aPathToModel
      * @param aRound
@@ -55,78 +59,113 @@ public class TestRegressionEFM {
      * @throws java.lang.ClassNotFoundException
      */
     public TestRegressionEFM( String aPathToTestData, String aPathToModel, boolean aRound) throws IOException, ClassNotFoundException {
-        pathToTestData = aPathToTestData;
+        this(Dataset.load(aPathToTestData), aPathToModel, aRound);
+    }
+
+    /**
+     * Test a model on a loaded data set, which is not modified
+     * @param aTestData
+     * @param aPathToModel
+     * @param aRound
+     * @throws java.io.IOException
+     */
+    public TestRegressionEFM( Dataset aTestData, String aPathToModel, boolean aRound) throws IOException {
         pathToModel = aPathToModel;
         round = aRound;
-        testData = new EFMScaledData(pathToTestData);
-        alFeatures = new ArrayList<Tree>(); 
-        alWeights = new ArrayList<Double>();
-        intercept = 0;
+        testData = new EFMScaledData(aTestData);
         readModel();
     }
 
     /*
-    * auxiliary class to read a model from file
+    * read and simplify the model, and prepare its batch scorer
     */
-    private void readModel() throws IOException, ClassNotFoundException{
-        
-        Scanner sc = new Scanner(new FileReader(pathToModel));
-        String lineMinMax = sc.nextLine();
-        String[] minMax = lineMinMax.split(",");
-        minTarget = Double.valueOf(minMax[0]);
-        maxTarget = Double.valueOf(minMax[1]);
-        intercept = Double.valueOf(sc.nextLine());
-        while(sc.hasNextLine()){
-            String sAux = sc.nextLine();
-            sAux = sAux.trim();
-            String[] tokens = sAux.split(" ");
-            double wAux = Double.valueOf(tokens[1]);
-            alWeights.add(wAux);
-            
-            String featureStringAux = "";
-            for(int i=3;i<tokens.length;i++){
-                featureStringAux += tokens[i] + " ";
-            }
-            featureStringAux = featureStringAux.trim();
-            Tree g = TreeGenerator.generateTree(featureStringAux);
-            alFeatures.add(g);
+    private void readModel() throws IOException {
+        try {
+            model = EFMModel.load(pathToModel).simplify();
+            scorer = new BatchScorer(model, round);
+        } catch (GPException e) {
+            throw new IOException("Error in model " + pathToModel + ": " + e.getMessage());
         }
     }
     
    
     /**
-     * @see eval an EFM model
+     * @see eval an EFM model. The test cases are scored in chunks of
+     * CHUNK_SIZE cases, each chunk accumulates its own errors and the errors
+     * of the chunks are added in chunk order, as in the parallel mode.
      */
     public void evalModel() {
+        int numberOfChunks = getNumberOfChunks();
+        double[] sqDiffs = new double[numberOfChunks];
+        double[] absDiffs = new double[numberOfChunks];
+        double[] predictions = new double[BatchScorer.BLOCK_SIZE];
+        for (int c = 0; c < numberOfChunks; c++) {
+            scoreChunk(scorer, predictions, c, sqDiffs, absDiffs);
+        }
+        printErrors(sqDiffs, absDiffs);
+    }
+
+    /**
+     * eval an EFM model with several threads. The test cases are split in
+     * chunks of CHUNK_SIZE cases scored in parallel, each chunk accumulates
+     * its own errors and the errors of the chunks are added in chunk order,
+     * so the reported MSE and MAE are the same in every run and for every
+     * number of threads, one thread included.
+     * @param numberOfThreads
+     */
+    public void evalModel(int numberOfThreads) {
+        if (numberOfThreads <= 1) {
+            evalModel();
+            return;
+        }
+        int numberOfChunks = getNumberOfChunks();
+        double[] sqDiffs = new double[numberOfChunks];
+        double[] absDiffs = new double[numberOfChunks];
+        final ThreadLocal<BatchScorer> scorers = new ThreadLocal<BatchScorer>();
+        ForkJoinPool pool = new ForkJoinPool(numberOfThreads);
+        try {
+            pool.invoke(new ChunkTask(scorers, sqDiffs, absDiffs, 0, numberOfChunks));
+        } finally {
+            pool.shutdown();
+        }
+        printErrors(sqDiffs, absDiffs);
+    }
+
+    private int getNumberOfChunks() {
+        return (testData.getNumberOfFitnessCases() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    /*
+    * accumulate the squared and absolute errors of a chunk of test cases
+    */
+    private void scoreChunk(BatchScorer chunkScorer, double[] predictions, int chunk, double[] sqDiffs, double[] absDiffs) {
+        double[][] inputColumnsAux = testData.getColumns();
+        double[] targets = testData.getTargetValues();
+        int chunkEnd = Math.min(testData.getNumberOfFitnessCases(), (chunk + 1) * CHUNK_SIZE);
         double sqDiff = 0;
         double absDiff = 0;
-        double[][] inputValuesAux = testData.getInputValues();
-        double[] targets = testData.getTargetValues();
-        
-        for (int i = 0; i < testData.getNumberOfFitnessCases(); i++) {
-            List<Double> d = new ArrayList<Double>();
-            for (int j = 0; j < testData.getNumberOfOriginalFeatures(); j++) {
-                d.add(j, (double)inputValuesAux[i][j]);
-            }
-            double prediction = intercept;
-            for (int j = 0; j < alFeatures.size(); j++) {
-                Tree genotype = (Tree) alFeatures.get(j);
-                Function func = genotype.generate();
-                double funcOutput = func.eval(d);
-                if(Double.isNaN(funcOutput) || Double.isInfinite(funcOutput)){
-                    funcOutput=0;
-                }
-                if(alWeights.get(j)!=0){
-                    prediction += alWeights.get(j) * funcOutput;
-                }
-                func = null;
+        for (int from = chunk * CHUNK_SIZE; from < chunkEnd; from += BatchScorer.BLOCK_SIZE) {
+            int to = Math.min(chunkEnd, from + BatchScorer.BLOCK_SIZE);
+            chunkScorer.predict(inputColumnsAux, predictions, from, to);
+            for (int i = from; i < to; i++) {
+                double prediction = predictions[i - from];
+                sqDiff += Math.pow(targets[i] - prediction, 2);
+                absDiff += Math.abs(targets[i] - prediction);
             }
-            if(prediction<minTarget) prediction = minTarget;
-            if(prediction>maxTarget) prediction = maxTarget;
-            if (round) prediction = Math.round(prediction);
-            d.clear();
-            sqDiff += Math.pow(targets[i] - prediction, 2);
-            absDiff += Math.abs(targets[i] - prediction);
+        }
+        sqDiffs[chunk] = sqDiff;
+        absDiffs[chunk] = absDiff;
+    }
+
+    /*
+    * print the MSE and MAE, adding the errors of the chunks in chunk order
+    */
+    private void printErrors(double[] sqDiffs, double[] absDiffs) {
+        double sqDiff = 0;
+        double absDiff = 0;
+        for (int c = 0; c < sqDiffs.length; c++) {
+            sqDiff += sqDiffs[c];
+            absDiff += absDiffs[c];
         }
         sqDiff = sqDiff / testData.getNumberOfFitnessCases();
         absDiff= absDiff / testData.getNumberOfFitnessCases();
@@ -134,4 +173,47 @@ public class TestRegressionEFM {
         System.out.println("MAE: " + absDiff);
     }
 
-}
\ No newline at end of file
+    /*
+    * scores a range of chunks, splitting it in halves until a single chunk is left
+    */
+    private class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ThreadLocal<BatchScorer> scorers;
+        private final double[] sqDiffs, absDiffs;
+        private final int firstChunk, lastChunk;
+
+        ChunkTask(ThreadLocal<BatchScorer> someScorers, double[] someSqDiffs, double[] someAbsDiffs, int aFirstChunk, int aLastChunk) {
+            scorers = someScorers;
+            sqDiffs = someSqDiffs;
+            absDiffs = someAbsDiffs;
+            firstChunk = aFirstChunk;
+            lastChunk = aLastChunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (firstChunk >= lastChunk) {
+                return;
+            }
+            if (lastChunk - firstChunk > 1) {
+                int middle = (firstChunk + lastChunk) >>> 1;
+                invokeAll(new ChunkTask(scorers, sqDiffs, absDiffs, firstChunk, middle),
+                        new ChunkTask(scorers, sqDiffs, absDiffs, middle, lastChunk));
+                return;
+            }
+            BatchScorer chunkScorer = scorers.get();
+            if (chunkScorer == null) {
+                try {
+                    chunkScorer = new BatchScorer(model, round);
+                } catch (GPException e) {
+                    throw new IllegalStateException(e);
+                }
+                scorers.set(chunkScorer);
+            }
+            scoreChunk(chunkScorer, new double[BatchScorer.BLOCK_SIZE], firstChunk, sqDiffs, absDiffs);
+        }
+    }
+
+}
@@ -21,9 +21,22 @@
 package main;
 
 import evofmj.algorithm.RegressionEFM;
+import evofmj.benchmark.FeatureKernelBenchmark;
+import evofmj.efm.GPException;
+import evofmj.evaluation.Dataset;
+import evofmj.evaluation.DatasetCache;
 import evofmj.evaluation.java.EFMScaledData;
+import evofmj.model.BinaryModelFormat;
+import evofmj.model.EFMModel;
+import evofmj.model.JavaSourceExporter;
+import evofmj.serve.ScoringServer;
+import evofmj.test.StreamingTestRegressionEFM;
+import evofmj.test.TestExportedModel;
+import evofmj.test.TestMethodHandleModel;
 import evofmj.test.TestRegressionEFM;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 
 
@@ -32,6 +45,9 @@ import java.io.IOException;
  * @author Ignacio Arnaldo
  */
 public class RegEFMMenuManager {
+
+    // number of features of the random model exported to check that large models are split
+    private static final int LARGE_MODEL_FEATURES = 3000;
     
     /**
      * void constructor
@@ -48,10 +64,26 @@ public class RegEFMMenuManager {
         System.err.println("USAGE:");
         System.err.println();
         System.err.println("TRAIN:");
-        System.err.println("java -jar efm.jar -train path_to_data -minutes min");
+        System.err.println("java -jar efm.jar -train path_to_data -minutes min [-metrics path_to_metrics_jsonl]");
         System.err.println();
         System.err.println("TEST:");
-        System.err.println("java -jar efm.jar -test path_to_test_data path_to_model");
+        System.err.println("java -jar efm.jar -test path_to_test_data path_to_model [-threads n | -predictions path_to_predictions | -scorer handles]");
+        System.err.println("(-predictions and -scorer handles score on a single thread)");
+        System.err.println();
+        System.err.println("Training and test data are cached next to the CSV files as <file>" + DatasetCache.SUFFIX);
+        System.err.println();
+        System.err.println("CONVERT (text model to binary model, or binary to text):");
+        System.err.println("java -jar efm.jar -convert path_to_model path_to_converted_model");
+        System.err.println();
+        System.err.println("EXPORT (model to a standalone Java class, optionally verified on test data):");
+        System.err.println("java -jar efm.jar -export path_to_model path_to_java_source [-verify path_to_test_data]");
+        System.err.println("(-verify also checks a large random model, and the bytecode size of the exported methods)");
+        System.err.println();
+        System.err.println("SERVE:");
+        System.err.println("java -jar efm.jar -serve port path_to_model [path_to_model ...]");
+        System.err.println();
+        System.err.println("BENCHMARK (feature construction kernels on synthetic data):");
+        System.err.println("java -jar efm.jar -benchmark [-rows n,n,... | -features n,n,... | -seconds s]");
         System.err.println();
     }
     
@@ -64,27 +96,31 @@ public class RegEFMMenuManager {
     public void parseRegEFMTrain(String args[]) throws IOException, Exception{
         String dataPath;
         double numMinutes;
-        if(args.length==4){
+        String metricsPath = null;
+        if(args.length==6 && args[4].equals("-metrics")){
+            metricsPath = args[5];
+        }
+        if(args.length==4 || metricsPath!=null){
             dataPath = args[1];
             if (args[2].equals("-minutes")) {
                 numMinutes = Double.valueOf(args[3]);
+                Dataset data = Dataset.loadCached(dataPath);
+                int numberOfOriginalFeatures = data.getNumberOfFeatures();
                 if(numMinutes==0){
-                    EFMScaledData data = new EFMScaledData(0, 0, dataPath);
-                    int numberOfOriginalFeatures = data.getNumberOfOriginalFeatures();
                     int numArchiveFeatures = 0;
                     int numNewFeatures = 0;
                     int maxFeatureSize = 5;
-                    RegressionEFM rEFM = new RegressionEFM(dataPath, numArchiveFeatures, numNewFeatures,maxFeatureSize,numberOfOriginalFeatures);
+                    RegressionEFM rEFM = new RegressionEFM(data, numArchiveFeatures, numNewFeatures,maxFeatureSize,numberOfOriginalFeatures);
+                    rEFM.setMetricsPath(metricsPath);
                     rEFM.runEFM(numMinutes*60);
                 }else{
-                    EFMScaledData data = new EFMScaledData(0, 0, dataPath);
-                    int numberOfOriginalFeatures = data.getNumberOfOriginalFeatures();
                     int numArchiveFeatures = 3*numberOfOriginalFeatures;
                     int numNewFeatures = numberOfOriginalFeatures;
                     int maxFeatureSize = 5;
                     int numberOfFinalFeatures = numberOfOriginalFeatures + numArchiveFeatures;
                     //int numberOfFinalFeatures = numberOfOriginalFeatures ;
-                    RegressionEFM rEFM = new RegressionEFM(dataPath, numArchiveFeatures, numNewFeatures,maxFeatureSize,numberOfFinalFeatures);
+                    RegressionEFM rEFM = new RegressionEFM(data, numArchiveFeatures, numNewFeatures,maxFeatureSize,numberOfFinalFeatures);
+                    rEFM.setMetricsPath(metricsPath);
                     rEFM.runEFM(numMinutes*60);
                 }
             }else{
@@ -103,19 +139,51 @@ public class RegEFMMenuManager {
      * @param args
      * @throws IOException
      * @throws ClassNotFoundException
+     * @throws GPException
      */
-    public void parseRegEFMTest(String args[]) throws IOException, ClassNotFoundException{
+    public void parseRegEFMTest(String args[]) throws IOException, ClassNotFoundException, GPException{
         String testDataPath;
         String popPath;
-        if (args.length==3){
+        int numberOfThreads = 1;
+        boolean threadsGiven = false;
+        String predictionsPath = null;
+        boolean methodHandles = false;
+        boolean validOptions = args.length>=3 && (args.length % 2)==1;
+        for (int i = 3; validOptions && i < args.length; i += 2) {
+            if (args[i].equals("-threads")) {
+                numberOfThreads = Integer.valueOf(args[i+1]);
+                threadsGiven = true;
+            } else if (args[i].equals("-predictions")) {
+                predictionsPath = args[i+1];
+            } else if (args[i].equals("-scorer") && args[i+1].equals("handles")) {
+                methodHandles = true;
+            } else {
+                validOptions = false;
+            }
+        }
+        if (validOptions && threadsGiven && (predictionsPath != null || methodHandles)) {
+            System.err.println("Error: -threads can't be combined with -predictions or -scorer handles, which score on a single thread");
+            printUsage();
+        }else if (validOptions){
             testDataPath = args[1];
             // check if knee model exists
             popPath = args[2];
             System.out.println();
             if(new File(popPath).isFile()){
                 System.out.println("TESTING MODEL:");
-                TestRegressionEFM trefm = new TestRegressionEFM(testDataPath,popPath,true);
-                trefm.evalModel();
+                if (methodHandles) {
+                    TestMethodHandleModel tmhm = new TestMethodHandleModel(Dataset.loadCached(testDataPath),popPath,true);
+                    if (tmhm.evalModel() != 0) {
+                        System.err.println("Error: the method handle predictions differ from the batch scorer");
+                        System.exit(1);
+                    }
+                } else if (predictionsPath != null) {
+                    StreamingTestRegressionEFM strefm = new StreamingTestRegressionEFM(testDataPath,popPath,predictionsPath,true);
+                    strefm.evalModel();
+                } else {
+                    TestRegressionEFM trefm = new TestRegressionEFM(Dataset.loadCached(testDataPath),popPath,true);
+                    trefm.evalModel(numberOfThreads);
+                }
                 System.out.println();
             }
         }else{
@@ -125,6 +193,134 @@ public class RegEFMMenuManager {
         
     }
 
+    /**
+     * parse arguments to serve EFM models over HTTP on localhost
+     * @param args
+     * @throws IOException
+     */
+    public void parseRegEFMServe(String args[]) throws IOException{
+        if (args.length>=3){
+            int port = Integer.valueOf(args[1]);
+            String[] modelPaths = new String[args.length-2];
+            System.arraycopy(args, 2, modelPaths, 0, modelPaths.length);
+            int numberOfThreads = Runtime.getRuntime().availableProcessors();
+            ScoringServer server = new ScoringServer(port, modelPaths, numberOfThreads);
+            server.start();
+            System.out.println("SERVING " + modelPaths.length + " MODEL(S) ON http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort());
+        }else{
+            System.err.println("Error: wrong number of arguments");
+            printUsage();
+        }
+    }
+
+    /**
+     * parse arguments to benchmark the feature construction kernels
+     * @param args
+     */
+    public void parseRegEFMBenchmark(String args[]){
+        int[] rowCounts = FeatureKernelBenchmark.DEFAULT_ROWS;
+        int[] featureCounts = FeatureKernelBenchmark.DEFAULT_FEATURES;
+        double seconds = 1;
+        if (args.length % 2 == 0) {
+            System.err.println("Error: wrong number of arguments");
+            printUsage();
+            return;
+        }
+        for (int i = 1; i < args.length; i += 2) {
+            if (args[i].equals("-rows")) {
+                rowCounts = parseIntList(args[i+1]);
+            } else if (args[i].equals("-features")) {
+                featureCounts = parseIntList(args[i+1]);
+            } else if (args[i].equals("-seconds")) {
+                seconds = Double.valueOf(args[i+1]);
+            } else {
+                System.err.println("Error: unknown argument " + args[i]);
+                printUsage();
+                return;
+            }
+        }
+        new FeatureKernelBenchmark(rowCounts, featureCounts, seconds).run(System.out);
+    }
+
+    /*
+    * parse a comma separated list of integers
+    */
+    private static int[] parseIntList(String list){
+        String[] tokens = list.split(",");
+        int[] values = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            values[i] = Integer.valueOf(tokens[i].trim());
+        }
+        return values;
+    }
+
+    /**
+     * parse arguments to convert a model between the text and binary formats
+     * @param args
+     * @throws IOException
+     */
+    public void parseRegEFMConvert(String args[]) throws IOException{
+        if (args.length==3){
+            EFMModel model = EFMModel.load(args[1]);
+            if (BinaryModelFormat.isBinaryModel(args[1])) {
+                model.save(args[2]);
+            } else {
+                BinaryModelFormat.save(model, args[2]);
+            }
+        }else{
+            System.err.println("Error: wrong number of arguments");
+            printUsage();
+        }
+    }
+
+    /**
+     * parse arguments to export a model as Java source; the name of the class
+     * is the name of the source file
+     * @param args
+     * @throws IOException
+     */
+    public void parseRegEFMExport(String args[]) throws IOException{
+        if (args.length==3 || (args.length==5 && args[3].equals("-verify"))){
+            String sourcePath = args[2];
+            String className = new File(sourcePath).getName();
+            if (className.endsWith(".java")) {
+                className = className.substring(0, className.length() - ".java".length());
+            }
+            EFMModel model;
+            String source;
+            try {
+                model = EFMModel.load(args[1]).simplify();
+                source = JavaSourceExporter.export(model, className, true);
+            } catch (GPException e) {
+                throw new IOException("Error in model " + args[1] + ": " + e.getMessage());
+            }
+            BufferedWriter bw = new BufferedWriter(new FileWriter(sourcePath));
+            try {
+                bw.write(source);
+            } finally {
+                bw.close();
+            }
+            if (args.length==5) {
+                System.out.println();
+                System.out.println("VERIFYING EXPORTED MODEL:");
+                EFMScaledData testData = new EFMScaledData(args[4]);
+                TestExportedModel tem = new TestExportedModel(testData, model, className, source, true);
+                int mismatches = tem.evalModel();
+                System.out.println();
+                System.out.println("VERIFYING A LARGE EXPORTED MODEL:");
+                tem = TestExportedModel.forLargeModel(testData, LARGE_MODEL_FEATURES, true);
+                mismatches += tem.evalModel();
+                System.out.println();
+                if (mismatches > 0) {
+                    System.exit(1);
+                }
+            }
+        }else{
+            System.err.println("Error: wrong number of arguments");
+            printUsage();
+        }
+    }
+
     /**
      * parse arguments of a call to EFM.jar from the command line
      * @param args
@@ -146,6 +342,18 @@ public class RegEFMMenuManager {
                 case "-test":
                     m.parseRegEFMTest(args);
                     break;
+                case "-convert":
+                    m.parseRegEFMConvert(args);
+                    break;
+                case "-export":
+                    m.parseRegEFMExport(args);
+                    break;
+                case "-serve":
+                    m.parseRegEFMServe(args);
+                    break;
+                case "-benchmark":
+                    m.parseRegEFMBenchmark(args);
+                    break;
                 default:
                     System.err.println("Error: unknown argument");
                     m.printUsage();